@@ -0,0 +1,472 @@
+/**
+ * JdbcTool: Command line pain relief for JDBC databases.
+ * Copyright (C) 2007, Quuxo Software.
+ * JdbcTool 2.0 - XLS, CSV, TEXT, HTML output and multi-tab features
+ * Copyright 2009-2017 Renny Koshy
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+package com.quuxo.jdbctool;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.TimeZone;
+
+/**
+ * Apache Arrow IPC streams, for tools that read Arrow (pandas, polars,
+ * DuckDB) to take the rows without parsing any text.
+ *
+ * Rows are appended to one columnar vector per column, with a validity bitmap
+ * and either fixed width values or offsets into variable width data, and sent
+ * as a record batch every <code>-b</code> rows (or sooner if the batch gets
+ * large). The stream starts with the schema message and ends with the end of
+ * stream marker. Result sets of the same shape go into the same stream; a
+ * different shape starts a new stream, in the next numbered file when writing
+ * to <code>-o</code>, or right after the last one on stdout.
+ */
+public class ArrowResultWriter implements ResultWriter {
+	static final int DEFAULT_BATCH_ROWS = 65536;
+	static final long MAX_BATCH_BYTES = 64L * 1024 * 1024;
+	private static final int CONTINUATION = 0xffffffff;
+	private static final int METADATA_V5 = 4;
+	// zeros, for padding and NULL values
+	private static final byte[] ZEROS = new byte[16];
+	// message header types
+	private static final int SCHEMA = 1;
+	private static final int RECORD_BATCH = 3;
+	// type ids, for the vectors as well
+	private static final int INT = 2;
+	private static final int FLOATING_POINT = 3;
+	private static final int BINARY = 4;
+	private static final int UTF8 = 5;
+	private static final int DECIMAL = 7;
+	private static final int DATE = 8;
+	private static final int TIMESTAMP = 10;
+	private static final int SINGLE = 1;
+	private static final int DOUBLE = 2;
+	private static final int MICROSECOND = 2;
+	private static final int DAY = 0;
+
+	/**
+	 * The current batch of one column.
+	 */
+	private static class Vector {
+		final String name;
+		final int type;
+		// bytes per value, or 0 for offsets and data
+		final int width;
+		final int precision;
+		final int scale;
+		byte[] validity = new byte[1024];
+		int nulls = 0;
+		final ByteSink values = new ByteSink(64 * 1024);
+		final ByteSink offsets;
+
+		Vector(String name, int type, int width, int precision, int scale) {
+			this.name = name;
+			this.type = type;
+			this.width = width;
+			this.precision = precision;
+			this.scale = scale;
+			this.offsets = (width == 0) ? new ByteSink(16 * 1024) : null;
+		}
+
+		void clear() {
+			Arrays.fill(validity, (byte) 0);
+			nulls = 0;
+			values.clear();
+			if (offsets != null) {
+				offsets.clear();
+				offsets.putInt(0);
+			}
+		}
+	}
+
+	private OutputOptions options;
+	private int batchRows;
+	private TimeZone timeZone;
+	private final FlatBufferOutput metadata = new FlatBufferOutput();
+	private final ByteSink prefix = new ByteSink(8);
+	private ChannelOutput output;
+	private int fileNumber = 0;
+	private String shape;
+	private Vector[] vectors;
+	private int rows;
+	private long batchBytes;
+
+	public String getFormat() {
+		return "arrow";
+	}
+
+	public boolean needsAllRows() {
+		return false;
+	}
+
+	public boolean usesWidths() {
+		return false;
+	}
+
+	public boolean printsDriverText() {
+		return false;
+	}
+
+	public void open(OutputOptions options) throws IOException {
+		this.options = options;
+		this.batchRows = (options.batchRows > 0) ? options.batchRows : DEFAULT_BATCH_ROWS;
+		this.timeZone = TimeZone.getDefault();
+	}
+
+	public void beginPage() throws IOException {
+	}
+
+	public void beginResult(String[] names, int[] types, int[] precisions, int[] scales, int[] widths)
+			throws IOException {
+		String key = ResultWriters.shape(names, types, precisions, scales);
+		if ((output != null) && key.equals(shape)) {
+			return;
+		}
+		if (output != null) {
+			endStream();
+			if (options.outputFile != null) {
+				output.close();
+				output = null;
+			}
+		}
+		if (output == null) {
+			fileNumber++;
+			output = (options.outputFile == null) ? ChannelOutput.toStdout()
+					: ChannelOutput.toFile(ResultWriters.numberedFile(options.outputFile, fileNumber));
+		}
+		shape = key;
+		vectors = new Vector[names.length];
+		for (int i = 0; i < names.length; i++) {
+			vectors[i] = newVector(names[i], types[i], precisions[i], scales[i]);
+			vectors[i].clear();
+		}
+		rows = 0;
+		batchBytes = 0;
+		writeSchema();
+	}
+
+	private static Vector newVector(String name, int sqlType, int precision, int scale) {
+		ColumnCodec codec = ColumnCodec.forType(sqlType);
+		if (codec == ColumnCodec.LONG) {
+			return new Vector(name, INT, 8, 0, 0);
+		} else if (codec == ColumnCodec.DOUBLE) {
+			return new Vector(name, FLOATING_POINT, 8, DOUBLE, 0);
+		} else if (codec == ColumnCodec.FLOAT) {
+			return new Vector(name, FLOATING_POINT, 4, SINGLE, 0);
+		} else if ((codec == ColumnCodec.DECIMAL) && ColumnCodec.isFixedDecimal(precision, scale)) {
+			return new Vector(name, DECIMAL, 16, precision, scale);
+		} else if (codec == ColumnCodec.TIMESTAMP) {
+			return new Vector(name, TIMESTAMP, 8, 0, 0);
+		} else if (codec == ColumnCodec.DATE) {
+			return new Vector(name, DATE, 4, 0, 0);
+		} else if (codec == ColumnCodec.BYTES) {
+			return new Vector(name, BINARY, 0, 0, 0);
+		}
+		// unconstrained NUMERIC keeps its exact text, like everything else
+		return new Vector(name, UTF8, 0, 0, 0);
+	}
+
+	public void writeRows(Object[][] batch, int count) throws IOException {
+		for (int r = 0; r < count; r++) {
+			Object[] values = batch[r];
+			for (int i = 0; i < vectors.length; i++) {
+				add(vectors[i], values[i]);
+			}
+			if ((++rows == batchRows) || (batchBytes >= MAX_BATCH_BYTES)) {
+				writeBatch();
+			}
+		}
+	}
+
+	private void add(Vector vector, Object value) throws IOException {
+		if ((rows >> 3) == vector.validity.length) {
+			vector.validity = Arrays.copyOf(vector.validity, vector.validity.length * 2);
+		}
+		ByteSink out = vector.values;
+		int before = out.size();
+		if (value == null) {
+			vector.nulls++;
+			if (vector.width > 0) {
+				out.put(ZEROS, 0, vector.width);
+			}
+		} else {
+			vector.validity[rows >> 3] |= 1 << (rows & 7);
+			switch (vector.type) {
+			case INT:
+				out.putLong(((Number) value).longValue());
+				break;
+			case FLOATING_POINT:
+				if (vector.width == 4) {
+					out.putFloat(((Number) value).floatValue());
+				} else {
+					out.putDouble(((Number) value).doubleValue());
+				}
+				break;
+			case DECIMAL:
+				putDecimal(out, (BigDecimal) value, vector.scale);
+				break;
+			case TIMESTAMP:
+				out.putLong(ColumnCodec.epochMicros((Timestamp) value));
+				break;
+			case DATE:
+				out.putInt(ColumnCodec.epochDay((java.util.Date) value, timeZone));
+				break;
+			case BINARY:
+				out.put((byte[]) value);
+				break;
+			default:
+				out.put(ColumnCodec.toText(value).getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		if (vector.offsets != null) {
+			vector.offsets.putInt(out.size());
+		}
+		batchBytes += out.size() - before;
+	}
+
+	/**
+	 * 128 bit little endian two's complement of the unscaled value.
+	 */
+	private static void putDecimal(ByteSink out, BigDecimal value, int scale) throws IOException {
+		BigInteger unscaled = value.setScale(scale, RoundingMode.HALF_UP).unscaledValue();
+		if (unscaled.bitLength() > 127) {
+			throw new IOException("Decimal value " + value + " does not fit 128 bits");
+		}
+		byte[] bytes = unscaled.toByteArray();
+		int fill = (unscaled.signum() < 0) ? 0xff : 0;
+		for (int i = 0; i < 16; i++) {
+			out.put((i < bytes.length) ? bytes[bytes.length - 1 - i] : fill);
+		}
+	}
+
+	private void writeSchema() throws IOException {
+		FlatBufferOutput fb = metadata;
+		fb.clear();
+		int root = fb.root();
+		int message = fb.beginTable(5);
+		fb.addShort(0, METADATA_V5);
+		fb.addByte(1, SCHEMA);
+		int header = fb.addOffset(2);
+		fb.endTable();
+		fb.link(root, message);
+
+		int schema = fb.beginTable(4);
+		int fields = fb.addOffset(1);
+		fb.endTable();
+		fb.link(header, schema);
+
+		int list = fb.offsetVector(vectors.length);
+		fb.link(fields, list);
+		for (int i = 0; i < vectors.length; i++) {
+			Vector vector = vectors[i];
+			int field = fb.beginTable(7);
+			int name = fb.addOffset(0);
+			fb.addByte(1, 1);
+			fb.addByte(2, vector.type);
+			int type = fb.addOffset(3);
+			int children = fb.addOffset(5);
+			fb.endTable();
+			fb.link(FlatBufferOutput.element(list, i), field);
+			fb.link(name, fb.string(vector.name));
+			fb.link(type, typeTable(fb, vector));
+			fb.link(children, fb.offsetVector(0));
+		}
+		writeMessage();
+	}
+
+	private int typeTable(FlatBufferOutput fb, Vector vector) {
+		int table;
+		switch (vector.type) {
+		case INT:
+			table = fb.beginTable(2);
+			fb.addInt(0, 64);
+			fb.addByte(1, 1);
+			fb.endTable();
+			return table;
+		case FLOATING_POINT:
+			table = fb.beginTable(1);
+			fb.addShort(0, vector.precision);
+			fb.endTable();
+			return table;
+		case DECIMAL:
+			table = fb.beginTable(3);
+			fb.addInt(0, vector.precision);
+			fb.addInt(1, vector.scale);
+			fb.addInt(2, 128);
+			fb.endTable();
+			return table;
+		case TIMESTAMP:
+			// the values are instants, shown in the zone they were read in
+			table = fb.beginTable(2);
+			fb.addShort(0, MICROSECOND);
+			int zone = fb.addOffset(1);
+			fb.endTable();
+			fb.link(zone, fb.string(timeZone.getID()));
+			return table;
+		case DATE:
+			table = fb.beginTable(1);
+			fb.addShort(0, DAY);
+			fb.endTable();
+			return table;
+		default:
+			// Binary and Utf8 have no fields
+			table = fb.beginTable(0);
+			fb.endTable();
+			return table;
+		}
+	}
+
+	/**
+	 * Sends the rows collected so far as one record batch.
+	 */
+	private void writeBatch() throws IOException {
+		if (rows == 0) {
+			return;
+		}
+		long bodyLength = 0;
+		for (Vector vector : vectors) {
+			bodyLength += padded(validityLength(vector)) + padded(vector.values.size());
+			if (vector.offsets != null) {
+				bodyLength += padded(vector.offsets.size());
+			}
+		}
+		FlatBufferOutput fb = metadata;
+		fb.clear();
+		int root = fb.root();
+		int message = fb.beginTable(5);
+		fb.addShort(0, METADATA_V5);
+		fb.addByte(1, RECORD_BATCH);
+		int header = fb.addOffset(2);
+		fb.addLong(3, bodyLength);
+		fb.endTable();
+		fb.link(root, message);
+
+		int batch = fb.beginTable(4);
+		fb.addLong(0, rows);
+		int nodes = fb.addOffset(1);
+		int buffers = fb.addOffset(2);
+		fb.endTable();
+		fb.link(header, batch);
+
+		fb.link(nodes, fb.structVector(vectors.length));
+		int bufferCount = 0;
+		for (Vector vector : vectors) {
+			fb.putLong(rows);
+			fb.putLong(vector.nulls);
+			bufferCount += (vector.offsets != null) ? 3 : 2;
+		}
+		// validity (left out when there are no NULLs), then the offsets and
+		// data or the values, each padded to 8 bytes
+		fb.link(buffers, fb.structVector(bufferCount));
+		long body = 0;
+		for (Vector vector : vectors) {
+			body = putBuffer(fb, body, validityLength(vector));
+			if (vector.offsets != null) {
+				body = putBuffer(fb, body, vector.offsets.size());
+			}
+			body = putBuffer(fb, body, vector.values.size());
+		}
+		writeMessage();
+
+		for (Vector vector : vectors) {
+			writePadded(vector.validity, validityLength(vector));
+			if (vector.offsets != null) {
+				writePadded(vector.offsets.array(), vector.offsets.size());
+			}
+			writePadded(vector.values.array(), vector.values.size());
+			vector.clear();
+		}
+		rows = 0;
+		batchBytes = 0;
+	}
+
+	private int validityLength(Vector vector) {
+		return (vector.nulls > 0) ? (rows + 7) >> 3 : 0;
+	}
+
+	private static long putBuffer(FlatBufferOutput fb, long offset, int length) {
+		fb.putLong(offset);
+		fb.putLong(length);
+		return offset + padded(length);
+	}
+
+	private static int padded(int length) {
+		return (length + 7) & ~7;
+	}
+
+	/**
+	 * Writes the metadata in <code>metadata</code> as an encapsulated
+	 * message: continuation marker, length, then the flatbuffer padded to 8
+	 * bytes. The body, if any, follows.
+	 */
+	private void writeMessage() throws IOException {
+		ByteSink bytes = metadata.bytes();
+		bytes.align(8);
+		prefix.clear();
+		prefix.putInt(CONTINUATION);
+		prefix.putInt(bytes.size());
+		prefix.writeTo(output);
+		bytes.writeTo(output);
+	}
+
+	private void writePadded(byte[] bytes, int length) throws IOException {
+		output.write(bytes, 0, length);
+		output.write(ZEROS, 0, padded(length) - length);
+	}
+
+	private void endStream() throws IOException {
+		writeBatch();
+		prefix.clear();
+		prefix.putInt(CONTINUATION);
+		prefix.putInt(0);
+		prefix.writeTo(output);
+	}
+
+	public void endResult() throws IOException {
+		writeBatch();
+	}
+
+	public void writeUpdateCount(int count) throws IOException {
+		if (!options.showResultsOnly) {
+			options.console.println();
+			options.console.println("Updated: " + count);
+			options.console.println();
+		}
+	}
+
+	public void endPage() throws IOException {
+		if (output != null) {
+			output.flush();
+		}
+	}
+
+	public void close() throws IOException {
+		if (output != null) {
+			endStream();
+			output.close();
+			output = null;
+		}
+	}
+}
@@ -0,0 +1,132 @@
+/**
+ * JdbcTool: Command line pain relief for JDBC databases.
+ * Copyright (C) 2007, Quuxo Software.
+ * JdbcTool 2.0 - XLS, CSV, TEXT, HTML output and multi-tab features
+ * Copyright 2009-2017 Renny Koshy
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+package com.quuxo.jdbctool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip compresses output on a thread pool, the way pigz does.
+ *
+ * Output is cut into blocks that are compressed independently, each into a
+ * gzip member of its own, and written in order as they complete. Gzip readers
+ * treat concatenated members as one stream, so the result decompresses with
+ * plain <code>gunzip</code>. At most two blocks per thread are in flight, so
+ * a slow disk or pipe still holds back the writer.
+ */
+class BlockCompressor {
+	static final int BLOCK_SIZE = 1024 * 1024;
+
+	private final WritableByteChannel channel;
+	private final ExecutorService pool;
+	private final int maxPending;
+	private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+	private boolean empty = true;
+
+	BlockCompressor(WritableByteChannel channel, int threads) {
+		this.channel = channel;
+		this.maxPending = threads * 2;
+		this.pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "jdbctool-gzip");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Queues the remaining bytes of <code>bytes</code> for compression, in
+	 * blocks of at most <code>BLOCK_SIZE</code>.
+	 */
+	void compress(ByteBuffer bytes) throws IOException {
+		while (bytes.hasRemaining()) {
+			byte[] block = new byte[Math.min(BLOCK_SIZE, bytes.remaining())];
+			bytes.get(block);
+			submit(block);
+		}
+	}
+
+	private void submit(final byte[] block) throws IOException {
+		empty = false;
+		if (pending.size() >= maxPending) {
+			writeNext();
+		}
+		pending.add(pool.submit(new Callable<byte[]>() {
+			public byte[] call() throws IOException {
+				ByteArrayOutputStream out = new ByteArrayOutputStream(block.length / 3 + 64);
+				GZIPOutputStream gzip = new GZIPOutputStream(out, 64 * 1024);
+				gzip.write(block);
+				gzip.close();
+				return out.toByteArray();
+			}
+		}));
+	}
+
+	/**
+	 * Waits for every queued block and writes it.
+	 */
+	void flush() throws IOException {
+		while (!pending.isEmpty()) {
+			writeNext();
+		}
+	}
+
+	private void writeNext() throws IOException {
+		byte[] compressed;
+		try {
+			compressed = pending.poll().get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while compressing output", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Could not compress output: " + e.getCause(), e.getCause());
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(compressed);
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	void close() throws IOException {
+		try {
+			if (empty) {
+				// an empty file is not valid gzip, an empty member is
+				submit(new byte[0]);
+			}
+			flush();
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,146 @@
+/**
+ * JdbcTool: Command line pain relief for JDBC databases.
+ * Copyright (C) 2007, Quuxo Software.
+ * JdbcTool 2.0 - XLS, CSV, TEXT, HTML output and multi-tab features
+ * Copyright 2009-2017 Renny Koshy
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+package com.quuxo.jdbctool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A growable little endian byte buffer on the heap, for assembling binary
+ * output (pages, footers, record batches) before it is written.
+ */
+class ByteSink {
+	private ByteBuffer buffer;
+
+	ByteSink(int size) {
+		buffer = ByteBuffer.allocate(Math.max(size, 16)).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	int size() {
+		return buffer.position();
+	}
+
+	/**
+	 * The backing array; only the first <code>size()</code> bytes are valid.
+	 */
+	byte[] array() {
+		return buffer.array();
+	}
+
+	void clear() {
+		buffer.clear();
+	}
+
+	private void ensure(int bytes) {
+		if (buffer.remaining() < bytes) {
+			int capacity = Math.max(buffer.capacity() * 2, buffer.position() + bytes);
+			ByteBuffer grown = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.flip();
+			grown.put(buffer);
+			buffer = grown;
+		}
+	}
+
+	ByteSink put(int b) {
+		ensure(1);
+		buffer.put((byte) b);
+		return this;
+	}
+
+	ByteSink put(byte[] bytes) {
+		return put(bytes, 0, bytes.length);
+	}
+
+	ByteSink put(byte[] bytes, int offset, int length) {
+		ensure(length);
+		buffer.put(bytes, offset, length);
+		return this;
+	}
+
+	ByteSink put(ByteSink other) {
+		return put(other.array(), 0, other.size());
+	}
+
+	ByteSink putShort(int value) {
+		ensure(2);
+		buffer.putShort((short) value);
+		return this;
+	}
+
+	ByteSink putInt(int value) {
+		ensure(4);
+		buffer.putInt(value);
+		return this;
+	}
+
+	ByteSink putLong(long value) {
+		ensure(8);
+		buffer.putLong(value);
+		return this;
+	}
+
+	ByteSink putFloat(float value) {
+		ensure(4);
+		buffer.putFloat(value);
+		return this;
+	}
+
+	ByteSink putDouble(double value) {
+		ensure(8);
+		buffer.putDouble(value);
+		return this;
+	}
+
+	/**
+	 * Unsigned LEB128, as used by Thrift, Snappy and Parquet's RLE runs.
+	 */
+	ByteSink putVarint(long value) {
+		while ((value & ~0x7fL) != 0) {
+			put((int) ((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+		return put((int) value);
+	}
+
+	void putShort(int at, int value) {
+		buffer.putShort(at, (short) value);
+	}
+
+	void putInt(int at, int value) {
+		buffer.putInt(at, value);
+	}
+
+	/**
+	 * Pads with zeros up to a multiple of <code>alignment</code>.
+	 */
+	void align(int alignment) {
+		while (size() % alignment != 0) {
+			put(0);
+		}
+	}
+
+	void writeTo(ChannelOutput out) throws IOException {
+		out.write(buffer.array(), 0, buffer.position());
+	}
+}
@@ -0,0 +1,463 @@
+/**
+ * JdbcTool: Command line pain relief for JDBC databases.
+ * Copyright (C) 2007, Quuxo Software.
+ * JdbcTool 2.0 - XLS, CSV, TEXT, HTML output and multi-tab features
+ * Copyright 2009-2017 Renny Koshy
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+package com.quuxo.jdbctool;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Buffered UTF-8 text output straight to a channel.
+ *
+ * Text is encoded by hand into one large direct buffer, with a fast path for
+ * ASCII, and written to the file or stdout channel a block at a time. This
+ * avoids the per call locking and small encoder runs of
+ * <code>PrintStream</code>. An in-memory instance (no channel) grows its heap
+ * buffer instead, which is how batches are formatted on worker threads.
+ */
+class ChannelOutput {
+	static final int BUFFER_SIZE = 1024 * 1024;
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+	private static final long ONES = 0x0101010101010101L;
+	private static final long HIGH_BITS = 0x8080808080808080L;
+	private static final long WORD_CR = '\r' * ONES;
+	private static final long WORD_LF = '\n' * ONES;
+	private static final byte[] AMP = { '&', 'a', 'm', 'p', ';' };
+	private static final byte[] LT = { '&', 'l', 't', ';' };
+	private static final byte[] GT = { '&', 'g', 't', ';' };
+	private static final byte[] QUOT = { '&', 'q', 'u', 'o', 't', ';' };
+	private static final byte[] JSON_CONTROL = { 'u', '0', '0' };
+	private static final byte[] HEX_DIGITS = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd',
+			'e', 'f' };
+
+	private final WritableByteChannel channel;
+	private final boolean stdout;
+	private ByteBuffer buffer;
+	// gzip compresses what is written to the channel, or null
+	private BlockCompressor compressor;
+	// bytes passed on to the channel so far
+	private long written = 0;
+
+	private ChannelOutput(WritableByteChannel channel, boolean stdout, ByteBuffer buffer) {
+		this.channel = channel;
+		this.stdout = stdout;
+		this.buffer = buffer;
+	}
+
+	static ChannelOutput toFile(String name) throws IOException {
+		return new ChannelOutput(new FileOutputStream(name).getChannel(), false,
+				ByteBuffer.allocateDirect(BUFFER_SIZE));
+	}
+
+	static ChannelOutput toStdout() {
+		return new ChannelOutput(new FileOutputStream(FileDescriptor.out).getChannel(), true,
+				ByteBuffer.allocateDirect(BUFFER_SIZE));
+	}
+
+	/**
+	 * Gzip compresses everything written from now on, on <code>threads</code>
+	 * threads.
+	 */
+	ChannelOutput compressed(int threads) {
+		compressor = new BlockCompressor(channel, threads);
+		return this;
+	}
+
+	static ChannelOutput inMemory(int size) {
+		return new ChannelOutput(null, false, ByteBuffer.allocate(Math.max(size, 64)));
+	}
+
+	void print(String s) throws IOException {
+		int length = s.length();
+		int i = 0;
+		while (i < length) {
+			// a char never takes more than 3 bytes, a surrogate pair 4 for 2,
+			// so this many chars always fit
+			int end = Math.min(length, i + buffer.remaining() / 3 - 1);
+			if (end <= i) {
+				drain();
+				continue;
+			}
+			for (; i < end; i++) {
+				char c = s.charAt(i);
+				if (c < 0x80) {
+					buffer.put((byte) c);
+				} else {
+					i = putNonAscii(s, i, c);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Like <code>print</code>, but escapes the characters that are special in
+	 * HTML text and attribute values. The escapes go straight into the
+	 * buffer, so no escaped copy of <code>s</code> is made; turning a value
+	 * into <code>s</code> in the first place is up to the caller.
+	 */
+	void printHtml(String s) throws IOException {
+		int length = s.length();
+		int i = 0;
+		while (i < length) {
+			// "&quot;" is the longest thing a single char turns into
+			int end = Math.min(length, i + buffer.remaining() / 6 - 1);
+			if (end <= i) {
+				drain();
+				continue;
+			}
+			for (; i < end; i++) {
+				char c = s.charAt(i);
+				switch (c) {
+				case '&':
+					buffer.put(AMP);
+					break;
+				case '<':
+					buffer.put(LT);
+					break;
+				case '>':
+					buffer.put(GT);
+					break;
+				case '"':
+					buffer.put(QUOT);
+					break;
+				default:
+					if (c < 0x80) {
+						buffer.put((byte) c);
+					} else {
+						i = putNonAscii(s, i, c);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Like <code>print</code>, but escapes what a JSON string cannot hold as
+	 * is: the quote, the backslash and control characters. The quotes around
+	 * the string are up to the caller.
+	 */
+	void printJson(String s) throws IOException {
+		int length = s.length();
+		int i = 0;
+		while (i < length) {
+			// an escaped control char takes six bytes, the most a single char can
+			// turn into
+			int end = Math.min(length, i + buffer.remaining() / 6 - 1);
+			if (end <= i) {
+				drain();
+				continue;
+			}
+			for (; i < end; i++) {
+				char c = s.charAt(i);
+				if (c >= 0x80) {
+					i = putNonAscii(s, i, c);
+				} else if ((c >= 0x20) && (c != '"') && (c != '\\')) {
+					buffer.put((byte) c);
+				} else {
+					putJsonEscape(c);
+				}
+			}
+		}
+	}
+
+	private void putJsonEscape(char c) {
+		buffer.put((byte) '\\');
+		switch (c) {
+		case '"':
+		case '\\':
+			buffer.put((byte) c);
+			break;
+		case '\n':
+			buffer.put((byte) 'n');
+			break;
+		case '\r':
+			buffer.put((byte) 'r');
+			break;
+		case '\t':
+			buffer.put((byte) 't');
+			break;
+		case '\b':
+			buffer.put((byte) 'b');
+			break;
+		case '\f':
+			buffer.put((byte) 'f');
+			break;
+		default:
+			buffer.put(JSON_CONTROL);
+			buffer.put(HEX_DIGITS[c >> 4]);
+			buffer.put(HEX_DIGITS[c & 0xf]);
+		}
+	}
+
+	/**
+	 * Encodes <code>c</code>, found at <code>i</code> in <code>s</code>, and
+	 * returns the index of the last char used (the low half of a surrogate
+	 * pair is used as well).
+	 */
+	private int putNonAscii(String s, int i, char c) {
+		if (c < 0x800) {
+			buffer.put((byte) (0xc0 | (c >> 6)));
+			buffer.put((byte) (0x80 | (c & 0x3f)));
+		} else if (Character.isSurrogate(c)) {
+			if (Character.isHighSurrogate(c) && (i + 1 < s.length()) && Character.isLowSurrogate(s.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, s.charAt(++i));
+				buffer.put((byte) (0xf0 | (cp >> 18)));
+				buffer.put((byte) (0x80 | ((cp >> 12) & 0x3f)));
+				buffer.put((byte) (0x80 | ((cp >> 6) & 0x3f)));
+				buffer.put((byte) (0x80 | (cp & 0x3f)));
+			} else {
+				// unpaired, same replacement as String.getBytes()
+				buffer.put((byte) '?');
+			}
+		} else {
+			buffer.put((byte) (0xe0 | (c >> 12)));
+			buffer.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+			buffer.put((byte) (0x80 | (c & 0x3f)));
+		}
+		return i;
+	}
+
+	void print(char c) throws IOException {
+		if ((c < 0x80) && buffer.hasRemaining()) {
+			buffer.put((byte) c);
+		} else {
+			print(String.valueOf(c));
+		}
+	}
+
+	/**
+	 * Prints the decimal digits of <code>value</code> without going through a
+	 * String.
+	 */
+	void print(long value) throws IOException {
+		if (value == Long.MIN_VALUE) {
+			print(Long.toString(value));
+			return;
+		}
+		ensure(20);
+		if (value < 0) {
+			buffer.put((byte) '-');
+			value = -value;
+		}
+		int start = buffer.position();
+		do {
+			buffer.put((byte) ('0' + (value % 10)));
+			value /= 10;
+		} while (value != 0);
+		// digits went in backwards
+		for (int i = start, j = buffer.position() - 1; i < j; i++, j--) {
+			byte b = buffer.get(i);
+			buffer.put(i, buffer.get(j));
+			buffer.put(j, b);
+		}
+	}
+
+	/**
+	 * Writes one CSV field, quoted only if it holds the delimiter, the quote,
+	 * CR or LF, with embedded quotes doubled. An empty string is written as
+	 * two quotes so that it can be told apart from NULL, which the caller
+	 * writes as nothing at all. The value is encoded straight into the buffer
+	 * and the encoded bytes are then checked eight at a time; only a value
+	 * that turns out to need quoting is written a second time. Delimiter and
+	 * quote must be ASCII.
+	 */
+	void printCsvField(String value, char delimiter, char quote) throws IOException {
+		int length = value.length();
+		if (length == 0) {
+			print(quote);
+			print(quote);
+			return;
+		}
+		int worst = 3 * length + 6;
+		if ((channel != null) && (worst > buffer.capacity())) {
+			// too big to encode in place, look at the chars instead
+			if (needsQuoting(value, delimiter, quote)) {
+				printQuoted(value, quote);
+			} else {
+				print(value);
+			}
+			return;
+		}
+		ensure(worst);
+		int start = buffer.position();
+		print(value);
+		if (containsAny(start, buffer.position(), (byte) delimiter, (byte) quote)) {
+			buffer.position(start);
+			printQuoted(value, quote);
+		}
+	}
+
+	private static boolean needsQuoting(String value, char delimiter, char quote) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if ((c == delimiter) || (c == quote) || (c == '\n') || (c == '\r')) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void printQuoted(String value, char quote) throws IOException {
+		print(quote);
+		int from = 0;
+		int at;
+		while ((at = value.indexOf(quote, from)) >= 0) {
+			print(value.substring(from, at + 1));
+			print(quote);
+			from = at + 1;
+		}
+		print((from == 0) ? value : value.substring(from));
+		print(quote);
+	}
+
+	/**
+	 * Checks buffer bytes <code>from</code> to <code>to</code> for the two
+	 * given bytes, CR and LF, a long word at a time (SWAR). Multi-byte UTF-8
+	 * sequences only contain bytes >= 0x80, so they never match.
+	 */
+	private boolean containsAny(int from, int to, byte a, byte b) {
+		long wordA = (a & 0xffL) * ONES;
+		long wordB = (b & 0xffL) * ONES;
+		int i = from;
+		for (; i + 8 <= to; i += 8) {
+			long word = buffer.getLong(i);
+			if (hasByte(word, wordA) || hasByte(word, wordB) || hasByte(word, WORD_CR) || hasByte(word, WORD_LF)) {
+				return true;
+			}
+		}
+		for (; i < to; i++) {
+			byte c = buffer.get(i);
+			if ((c == a) || (c == b) || (c == '\r') || (c == '\n')) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean hasByte(long word, long pattern) {
+		long x = word ^ pattern;
+		return ((x - ONES) & ~x & HIGH_BITS) != 0;
+	}
+
+	void println(String s) throws IOException {
+		print(s);
+		print(LINE_SEPARATOR);
+	}
+
+	void println() throws IOException {
+		print(LINE_SEPARATOR);
+	}
+
+	void write(byte[] bytes, int offset, int length) throws IOException {
+		if (length > buffer.remaining()) {
+			drain();
+		}
+		if (length > buffer.remaining()) {
+			if (channel == null) {
+				grow(length);
+			} else {
+				writeFully(ByteBuffer.wrap(bytes, offset, length));
+				return;
+			}
+		}
+		buffer.put(bytes, offset, length);
+	}
+
+	/**
+	 * The number of bytes written so far, before any compression.
+	 */
+	long position() {
+		return written + buffer.position();
+	}
+
+	/**
+	 * Returns what an in-memory instance has collected.
+	 */
+	byte[] toByteArray() {
+		return Arrays.copyOf(buffer.array(), buffer.position());
+	}
+
+	void flush() throws IOException {
+		if (channel != null) {
+			drain();
+		}
+		if (compressor != null) {
+			compressor.flush();
+		}
+	}
+
+	void close() throws IOException {
+		flush();
+		if (compressor != null) {
+			compressor.close();
+		}
+		if ((channel != null) && !stdout) {
+			channel.close();
+		}
+	}
+
+	private void ensure(int bytes) throws IOException {
+		if (buffer.remaining() < bytes) {
+			if (channel == null) {
+				grow(bytes);
+			} else {
+				drain();
+			}
+		}
+	}
+
+	private void drain() throws IOException {
+		if (channel == null) {
+			grow(BUFFER_SIZE);
+			return;
+		}
+		buffer.flip();
+		writeFully(buffer);
+		buffer.clear();
+	}
+
+	private void writeFully(ByteBuffer bytes) throws IOException {
+		if (stdout) {
+			// keep anything printed through System.out in order
+			System.out.flush();
+		}
+		written += bytes.remaining();
+		if (compressor != null) {
+			compressor.compress(bytes);
+			return;
+		}
+		while (bytes.hasRemaining()) {
+			channel.write(bytes);
+		}
+	}
+
+	private void grow(int needed) {
+		ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + needed));
+		buffer.flip();
+		bigger.put(buffer);
+		buffer = bigger;
+	}
+}
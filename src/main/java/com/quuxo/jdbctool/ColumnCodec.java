@@ -0,0 +1,322 @@
+/**
+ * JdbcTool: Command line pain relief for JDBC databases.
+ * Copyright (C) 2007, Quuxo Software.
+ * JdbcTool 2.0 - XLS, CSV, TEXT, HTML output and multi-tab features
+ * Copyright 2009-2017 Renny Koshy
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+package com.quuxo.jdbctool;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.TimeZone;
+
+/**
+ * Reads one column with the getter that matches its SQL type, chosen once per
+ * result set from the metadata.
+ *
+ * Row values are therefore one of <code>Long</code>, <code>Double</code>,
+ * <code>Float</code>, <code>BigDecimal</code>, <code>Timestamp</code>,
+ * <code>Date</code>, <code>byte[]</code> or <code>String</code>, and null for
+ * SQL NULL. Formats with native types (spreadsheets, binary formats) use the
+ * value as is. The text formats read every column with <code>STRING</code>,
+ * so they print exactly what the driver's <code>getString</code> gives,
+ * such as the padding of MySQL ZEROFILL columns and integers too big for a
+ * <code>long</code> in columns the driver calls BIGINT.
+ */
+abstract class ColumnCodec {
+	static final ColumnCodec LONG = new ColumnCodec() {
+		@Override
+		Object read(ResultSet results, int column) throws SQLException {
+			long value = results.getLong(column);
+			return results.wasNull() ? null : Long.valueOf(value);
+		}
+	};
+
+	static final ColumnCodec DOUBLE = new ColumnCodec() {
+		@Override
+		Object read(ResultSet results, int column) throws SQLException {
+			double value = results.getDouble(column);
+			return results.wasNull() ? null : Double.valueOf(value);
+		}
+	};
+
+	// REAL is single precision, widening it would print digits it never had
+	static final ColumnCodec FLOAT = new ColumnCodec() {
+		@Override
+		Object read(ResultSet results, int column) throws SQLException {
+			float value = results.getFloat(column);
+			return results.wasNull() ? null : Float.valueOf(value);
+		}
+	};
+
+	static final ColumnCodec DECIMAL = new ColumnCodec() {
+		@Override
+		Object read(ResultSet results, int column) throws SQLException {
+			return results.getBigDecimal(column);
+		}
+	};
+
+	static final ColumnCodec TIMESTAMP = new ColumnCodec() {
+		@Override
+		Object read(ResultSet results, int column) throws SQLException {
+			try {
+				return results.getTimestamp(column);
+			} catch (SQLException e) {
+				return zeroDate(results, column, e);
+			}
+		}
+	};
+
+	static final ColumnCodec DATE = new ColumnCodec() {
+		@Override
+		Object read(ResultSet results, int column) throws SQLException {
+			try {
+				return results.getDate(column);
+			} catch (SQLException e) {
+				return zeroDate(results, column, e);
+			}
+		}
+	};
+
+	static final ColumnCodec BYTES = new ColumnCodec() {
+		@Override
+		Object read(ResultSet results, int column) throws SQLException {
+			return results.getBytes(column);
+		}
+	};
+
+	static final ColumnCodec STRING = new ColumnCodec() {
+		@Override
+		Object read(ResultSet results, int column) throws SQLException {
+			return results.getString(column);
+		}
+	};
+
+	private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	/**
+	 * Reads the value of a 1-based <code>column</code> of the current row.
+	 */
+	abstract Object read(ResultSet results, int column) throws SQLException;
+
+	/**
+	 * MySQL's 0000-00-00 dates have no <code>Timestamp</code>, and Connector/J
+	 * refuses to read them as one. They are read as NULL, as
+	 * <code>zeroDateTimeBehavior=convertToNull</code> would.
+	 */
+	private static Object zeroDate(ResultSet results, int column, SQLException e) throws SQLException {
+		String text = results.getString(column);
+		if ((text != null) && text.startsWith("0000-00-00")) {
+			return null;
+		}
+		throw e;
+	}
+
+	static ColumnCodec forColumn(ResultSetMetaData meta, int column) throws SQLException {
+		int type = meta.getColumnType(column);
+		if ((type == Types.BIGINT) && !meta.isSigned(column)) {
+			// BIGINT UNSIGNED doesn't fit a long
+			return DECIMAL;
+		}
+		return forType(type);
+	}
+
+	/**
+	 * The codec for a <code>java.sql.Types</code> type, which tells formats
+	 * with a schema what kind of values a column will hold.
+	 */
+	static ColumnCodec forType(int type) {
+		switch (type) {
+		case Types.TINYINT:
+		case Types.SMALLINT:
+		case Types.INTEGER:
+		case Types.BIGINT:
+			return LONG;
+		case Types.DOUBLE:
+		case Types.FLOAT:
+			return DOUBLE;
+		case Types.REAL:
+			return FLOAT;
+		case Types.DECIMAL:
+		case Types.NUMERIC:
+			return DECIMAL;
+		case Types.TIMESTAMP:
+			return TIMESTAMP;
+		case Types.DATE:
+			return DATE;
+		case Types.BINARY:
+		case Types.VARBINARY:
+		case Types.LONGVARBINARY:
+		case Types.BLOB:
+			return BYTES;
+		default:
+			return STRING;
+		}
+	}
+
+	/**
+	 * The text of a row value, or null for NULL.
+	 */
+	static String toText(Object value) {
+		if ((value == null) || (value instanceof String)) {
+			return (String) value;
+		}
+		if (value instanceof BigDecimal) {
+			return ((BigDecimal) value).toPlainString();
+		}
+		if (value instanceof byte[]) {
+			byte[] bytes = (byte[]) value;
+			char[] chars = new char[bytes.length * 2];
+			for (int i = 0; i < bytes.length; i++) {
+				chars[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+				chars[2 * i + 1] = HEX[bytes[i] & 0xf];
+			}
+			return new String(chars);
+		}
+		return value.toString();
+	}
+
+	/**
+	 * Reads back binary written by <code>toText</code> as hex digits.
+	 */
+	static byte[] parseHex(String text) {
+		if ((text.length() & 1) != 0) {
+			throw new IllegalArgumentException("Odd number of hex digits: " + text);
+		}
+		byte[] bytes = new byte[text.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			int high = Character.digit(text.charAt(2 * i), 16);
+			int low = Character.digit(text.charAt(2 * i + 1), 16);
+			if ((high < 0) || (low < 0)) {
+				throw new IllegalArgumentException("Not hex: " + text);
+			}
+			bytes[i] = (byte) ((high << 4) | low);
+		}
+		return bytes;
+	}
+
+	/**
+	 * The length of <code>toText(value)</code>, without building it for
+	 * integers and binary values.
+	 */
+	static int textLength(Object value) {
+		if (value instanceof String) {
+			return ((String) value).length();
+		}
+		if (value instanceof Long) {
+			return longLength((Long) value);
+		}
+		if (value instanceof byte[]) {
+			return ((byte[]) value).length * 2;
+		}
+		return toText(value).length();
+	}
+
+	private static int longLength(long value) {
+		if (value == Long.MIN_VALUE) {
+			return 20;
+		}
+		int length = (value < 0) ? 2 : 1;
+		for (long v = Math.abs(value); v >= 10; v /= 10) {
+			length++;
+		}
+		return length;
+	}
+
+	/**
+	 * Prints a non-null row value as text.
+	 */
+	static void print(ChannelOutput out, Object value) throws IOException {
+		if (value instanceof String) {
+			out.print((String) value);
+		} else if (value instanceof Long) {
+			out.print(((Long) value).longValue());
+		} else {
+			out.print(toText(value));
+		}
+	}
+
+	/**
+	 * True for values whose text is a number, date or hex string, which only
+	 * uses digits, letters and <code>.-+: </code>.
+	 */
+	static boolean isPlain(Object value) {
+		return (value instanceof Number) || (value instanceof java.util.Date) || (value instanceof byte[]);
+	}
+
+	/**
+	 * True if a CSV delimiter or quote can never occur in the text of a plain
+	 * value.
+	 */
+	static boolean isSafeSeparator(char c) {
+		return !Character.isLetterOrDigit(c) && (".-+: ".indexOf(c) < 0);
+	}
+
+	/**
+	 * Rough heap size of a row value, for fetch size tuning.
+	 */
+	static int heapSize(Object value) {
+		if (value instanceof String) {
+			// UTF-16 payload plus per-object overhead
+			return 2 * ((String) value).length() + 40;
+		}
+		if (value instanceof byte[]) {
+			return ((byte[]) value).length + 16;
+		}
+		return (value != null) ? 24 : 0;
+	}
+
+	/**
+	 * Days since 1970-01-01 of the date in <code>zone</code>.
+	 */
+	static int epochDay(java.util.Date date, TimeZone zone) {
+		long millis = date.getTime();
+		return (int) floorDiv(millis + zone.getOffset(millis), MILLIS_PER_DAY);
+	}
+
+	/**
+	 * Microseconds since the epoch, keeping the sub-millisecond nanos.
+	 */
+	static long epochMicros(Timestamp timestamp) {
+		return floorDiv(timestamp.getTime(), 1000) * 1000000 + timestamp.getNanos() / 1000;
+	}
+
+	private static long floorDiv(long x, long y) {
+		long q = x / y;
+		if (((x % y) != 0) && ((x < 0) != (y < 0))) {
+			q--;
+		}
+		return q;
+	}
+
+	/**
+	 * True if DECIMAL values with this precision and scale fit a fixed point
+	 * type of at most 38 digits, such as Parquet's or Arrow's decimals.
+	 */
+	static boolean isFixedDecimal(int precision, int scale) {
+		return (precision > 0) && (precision <= 38) && (scale >= 0) && (scale <= precision);
+	}
+}
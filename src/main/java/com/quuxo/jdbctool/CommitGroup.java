@@ -0,0 +1,111 @@
+/**
+ * JdbcTool: Command line pain relief for JDBC databases.
+ * Copyright (C) 2007, Quuxo Software.
+ * JdbcTool 2.0 - XLS, CSV, TEXT, HTML output and multi-tab features
+ * Copyright 2009-2017 Renny Koshy
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+package com.quuxo.jdbctool;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Runs script statements in transactions of up to <code>maxStatements</code>
+ * statements or <code>maxSeconds</code> seconds, whichever fills first, so the
+ * server flushes its log once per group rather than once per statement.
+ *
+ * The limits are checked between statements, and a batch counts as all of its
+ * statements. Commit times are kept apart from the time spent running the
+ * statements, which is what the group size trades off.
+ */
+class CommitGroup {
+	private final Connection connection;
+	private final int maxStatements;
+	private final long maxNanos;
+	private final long created = System.nanoTime();
+	private long groupStart = created;
+	private int pending = 0;
+	private long statements = 0;
+	private long rolledBack = 0;
+	private int commits = 0;
+	private long commitNanos = 0;
+	private long slowestCommit = 0;
+
+	CommitGroup(Connection connection, int maxStatements, int maxSeconds) throws SQLException {
+		this.connection = connection;
+		this.maxStatements = maxStatements;
+		this.maxNanos = maxSeconds * 1000000000L;
+		connection.setAutoCommit(false);
+	}
+
+	/**
+	 * Counts statements that ran in the open transaction.
+	 */
+	void executed(int count) {
+		pending += count;
+		statements += count;
+	}
+
+	/**
+	 * Commits if the group is full or has been open too long.
+	 */
+	void commitIfDue() throws SQLException {
+		if (((maxStatements > 0) && (pending >= maxStatements))
+				|| ((maxNanos > 0) && (System.nanoTime() - groupStart >= maxNanos))) {
+			commit();
+		}
+	}
+
+	void commit() throws SQLException {
+		if (pending > 0) {
+			long start = System.nanoTime();
+			connection.commit();
+			long took = System.nanoTime() - start;
+			commits++;
+			commitNanos += took;
+			slowestCommit = Math.max(slowestCommit, took);
+			pending = 0;
+		}
+		groupStart = System.nanoTime();
+	}
+
+	/**
+	 * Rolls back the open transaction and returns how many statements were in
+	 * it.
+	 */
+	int rollback() {
+		int lost = pending;
+		try {
+			connection.rollback();
+		} catch (SQLException e) {
+			// the statement's error is the one to report
+		}
+		rolledBack += lost;
+		pending = 0;
+		groupStart = System.nanoTime();
+		return lost;
+	}
+
+	String summary() {
+		double total = (System.nanoTime() - created) / 1e6;
+		return String.format("%d statement(s) in %d commit(s), %d rolled back; commits took %.1f of %.1f ms"
+				+ " (%.2f ms average, %.2f ms slowest)", statements - rolledBack, commits, rolledBack,
+				commitNanos / 1e6, total, (commits == 0) ? 0.0 : commitNanos / 1e6 / commits, slowestCommit / 1e6);
+	}
+}
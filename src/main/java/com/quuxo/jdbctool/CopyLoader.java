@@ -0,0 +1,76 @@
+/**
+ * JdbcTool: Command line pain relief for JDBC databases.
+ * Copyright (C) 2007, Quuxo Software.
+ * JdbcTool 2.0 - XLS, CSV, TEXT, HTML output and multi-tab features
+ * Copyright 2009-2017 Renny Koshy
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+package com.quuxo.jdbctool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Types;
+
+import org.postgresql.PGConnection;
+
+/**
+ * Loads CSV records into PostgreSQL with <code>COPY FROM STDIN</code>, which
+ * streams each chunk to the server as it is. PostgreSQL's CSV format reads
+ * NULL and empty strings the way the CSV output writes them.
+ */
+class CopyLoader implements CsvImport.Loader {
+	private final String sql;
+
+	CopyLoader(String table, String[] columns, char delimiter, char quote) {
+		StringBuilder sql = new StringBuilder("COPY ").append(table).append(" (");
+		for (int i = 0; i < columns.length; i++) {
+			if (i > 0) {
+				sql.append(", ");
+			}
+			sql.append(columns[i]);
+		}
+		sql.append(") FROM STDIN WITH (FORMAT csv, DELIMITER ").append(literal(delimiter)).append(", QUOTE ")
+				.append(literal(quote)).append(')');
+		this.sql = sql.toString();
+	}
+
+	/**
+	 * False if a column is binary, since COPY wants bytea as
+	 * <code>\x</code> escaped hex rather than the plain hex the CSV output
+	 * writes.
+	 */
+	static boolean canLoad(int[] types) {
+		for (int type : types) {
+			if ((type == Types.BINARY) || (type == Types.VARBINARY) || (type == Types.LONGVARBINARY)
+					|| (type == Types.BLOB)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static String literal(char c) {
+		return (c == '\'') ? "''''" : "'" + c + "'";
+	}
+
+	public long load(Connection connection, ByteBuffer records) throws SQLException, IOException {
+		return connection.unwrap(PGConnection.class).getCopyAPI().copyIn(sql, CsvImport.stream(records));
+	}
+}
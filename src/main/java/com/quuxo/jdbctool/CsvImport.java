@@ -0,0 +1,414 @@
+/**
+ * JdbcTool: Command line pain relief for JDBC databases.
+ * Copyright (C) 2007, Quuxo Software.
+ * JdbcTool 2.0 - XLS, CSV, TEXT, HTML output and multi-tab features
+ * Copyright 2009-2017 Renny Koshy
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+package com.quuxo.jdbctool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads a CSV file with a header row into a table over several connections.
+ *
+ * The file is memory mapped and cut into chunks of whole records, which the
+ * workers, one per connection, take from a bounded queue. Chunks are cut in
+ * order while the workers load them, since a line break only ends a record
+ * outside quotes and the quote state is only known from the start of the
+ * file. Each chunk is loaded and committed as one transaction. A chunk that
+ * fails is rolled back and its records, after the header, are written to an
+ * error file that can be imported again once fixed.
+ */
+class CsvImport {
+	static final long MAX_CHUNK_BYTES = 8L * 1024 * 1024;
+	static final long MIN_CHUNK_BYTES = 64L * 1024;
+	// how much of the file the chunk cutter maps at a time
+	private static final long SCAN_WINDOW = 64L * 1024 * 1024;
+
+	/**
+	 * Loads the records of one chunk over a worker's connection and returns
+	 * the number of rows. One loader is shared by all the workers.
+	 */
+	interface Loader {
+		long load(Connection connection, ByteBuffer records) throws SQLException, IOException;
+	}
+
+	private static class Chunk {
+		final int number;
+		final long start;
+		final long end;
+
+		Chunk(int number, long start, long end) {
+			this.number = number;
+			this.start = start;
+			this.end = end;
+		}
+	}
+
+	private static final Chunk END = new Chunk(0, 0, 0);
+
+	private final String file;
+	private final char delimiter;
+	private final char quote;
+	private final PrintStream console;
+	private final boolean showProgress;
+	private FileChannel channel;
+	private byte[] header;
+	private long dataStart;
+	private boolean inQuotes;
+	private int chunks = 0;
+	private final AtomicLong rows = new AtomicLong();
+	private final AtomicLong bytesDone = new AtomicLong();
+	private final AtomicInteger failedChunks = new AtomicInteger();
+	private final AtomicInteger liveWorkers = new AtomicInteger();
+	private volatile IOException failure;
+
+	CsvImport(String file, char delimiter, char quote, PrintStream console, boolean showProgress) {
+		this.file = file;
+		this.delimiter = delimiter;
+		this.quote = quote;
+		this.console = console;
+		this.showProgress = showProgress;
+	}
+
+	/**
+	 * Opens the file and returns the column names from its header.
+	 */
+	String[] open() throws IOException {
+		channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+		ByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), SCAN_WINDOW));
+		CsvReader reader = new CsvReader(head, delimiter, quote);
+		String[] names = reader.next();
+		if (names == null) {
+			throw new IOException(file + " is empty");
+		}
+		dataStart = reader.position();
+		header = new byte[(int) dataStart];
+		head.position(0);
+		head.get(header);
+		return names;
+	}
+
+	/**
+	 * Loads the file with a worker for each of <code>connections</code> and
+	 * returns the number of rows loaded. Chunks that failed are counted by
+	 * <code>getFailedChunks()</code>.
+	 */
+	long run(List<Connection> connections, final Loader loader) throws IOException, SQLException {
+		long size = channel.size();
+		long chunkBytes = Math.max(MIN_CHUNK_BYTES,
+				Math.min(MAX_CHUNK_BYTES, (size - dataStart) / (connections.size() * 4)));
+		final ArrayBlockingQueue<Chunk> queue = new ArrayBlockingQueue<Chunk>(connections.size() * 2);
+		Thread[] workers = new Thread[connections.size()];
+		for (int i = 0; i < workers.length; i++) {
+			final Connection connection = connections.get(i);
+			connection.setAutoCommit(false);
+			workers[i] = new Thread("jdbctool-import-" + (i + 1)) {
+				@Override
+				public void run() {
+					work(connection, loader, queue);
+				}
+			};
+			workers[i].setDaemon(true);
+			liveWorkers.incrementAndGet();
+			workers[i].start();
+		}
+		Thread progress = showProgress ? startProgress(size - dataStart) : null;
+		try {
+			cut(size, chunkBytes, queue);
+			for (int i = 0; i < workers.length; i++) {
+				put(queue, END);
+			}
+			for (Thread worker : workers) {
+				worker.join();
+			}
+		} catch (InterruptedException e) {
+			for (Thread worker : workers) {
+				worker.interrupt();
+			}
+			throw new IOException("Interrupted while importing " + file, e);
+		} finally {
+			if (progress != null) {
+				progress.interrupt();
+				try {
+					progress.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+		return rows.get();
+	}
+
+	/**
+	 * The line ending of the header, which native loaders take to be the
+	 * file's.
+	 */
+	String getLineEnding() {
+		int length = header.length;
+		return ((length > 1) && (header[length - 2] == '\r') && (header[length - 1] == '\n')) ? "\r\n" : "\n";
+	}
+
+	/**
+	 * Counts the records of a chunk as the line breaks outside quotes, and a
+	 * last record without one, for loaders that only get a row count back.
+	 */
+	static long countRecords(ByteBuffer records, char quote) {
+		byte q = (byte) quote;
+		boolean quoted = false;
+		long count = 0;
+		int limit = records.limit();
+		for (int i = records.position(); i < limit; i++) {
+			byte b = records.get(i);
+			if (b == q) {
+				quoted = !quoted;
+			} else if ((b == '\n') && !quoted) {
+				count++;
+			}
+		}
+		if ((limit > records.position()) && (records.get(limit - 1) != '\n')) {
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Reads a chunk's records, for loaders that hand the CSV to the driver as
+	 * it is.
+	 */
+	static InputStream stream(final ByteBuffer records) {
+		return new InputStream() {
+			@Override
+			public int read() {
+				return records.hasRemaining() ? (records.get() & 0xff) : -1;
+			}
+
+			@Override
+			public int read(byte[] bytes, int offset, int length) {
+				if (length == 0) {
+					return 0;
+				}
+				if (!records.hasRemaining()) {
+					return -1;
+				}
+				length = Math.min(length, records.remaining());
+				records.get(bytes, offset, length);
+				return length;
+			}
+
+			@Override
+			public int available() {
+				return records.remaining();
+			}
+		};
+	}
+
+	int getChunks() {
+		return chunks;
+	}
+
+	int getFailedChunks() {
+		return failedChunks.get();
+	}
+
+	void close() throws IOException {
+		if (channel != null) {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Queues chunks of about <code>chunkBytes</code>, each ending at the first
+	 * record boundary after that.
+	 */
+	private void cut(long size, long chunkBytes, ArrayBlockingQueue<Chunk> queue)
+			throws IOException, InterruptedException {
+		long start = dataStart;
+		// the quote state is known up to here
+		long scanned = dataStart;
+		inQuotes = false;
+		while (start < size) {
+			long target = start + chunkBytes;
+			long end = size;
+			while ((target < size) && (scanned < size)) {
+				long length = Math.min(SCAN_WINDOW, size - scanned);
+				ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, scanned, length);
+				int found = recordEnd(window, (int) Math.max(0, Math.min(length, target - scanned)));
+				if (found >= 0) {
+					end = scanned + found;
+					scanned = end;
+					break;
+				}
+				scanned += length;
+			}
+			put(queue, new Chunk(++chunks, start, end));
+			start = end;
+		}
+	}
+
+	/**
+	 * Returns the offset just past the first line break outside quotes at or
+	 * after <code>from</code>, or -1. Doubled quotes toggle twice, so counting
+	 * every quote is enough.
+	 */
+	private int recordEnd(ByteBuffer window, int from) {
+		int limit = window.limit();
+		byte q = (byte) quote;
+		for (int i = 0; i < limit; i++) {
+			byte b = window.get(i);
+			if (b == q) {
+				inQuotes = !inQuotes;
+			} else if ((b == '\n') && !inQuotes && (i >= from)) {
+				return i + 1;
+			}
+		}
+		return -1;
+	}
+
+	private void work(Connection connection, Loader loader, ArrayBlockingQueue<Chunk> queue) {
+		try {
+			Chunk chunk;
+			while ((chunk = queue.take()) != END) {
+				try {
+					ByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY, chunk.start,
+							chunk.end - chunk.start);
+					long loaded = loader.load(connection, records);
+					connection.commit();
+					rows.addAndGet(loaded);
+				} catch (Exception e) {
+					try {
+						connection.rollback();
+					} catch (SQLException x) {
+						// report the original error
+					}
+					chunkFailed(chunk, e);
+				}
+				bytesDone.addAndGet(chunk.end - chunk.start);
+			}
+		} catch (InterruptedException e) {
+			// cancelled
+		} catch (Throwable t) {
+			failure = new IOException("Import worker failed: " + t, t);
+		} finally {
+			liveWorkers.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Queues a chunk, giving up if no worker is left to take it.
+	 */
+	private void put(ArrayBlockingQueue<Chunk> queue, Chunk chunk) throws IOException, InterruptedException {
+		while (!queue.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+			if (liveWorkers.get() == 0) {
+				throw (failure != null) ? failure : new IOException("No import worker left");
+			}
+		}
+	}
+
+	/**
+	 * Writes the header and the records of a failed chunk to an error file.
+	 */
+	private void chunkFailed(Chunk chunk, Exception e) {
+		failedChunks.incrementAndGet();
+		// not shardFile, which would take a % in the name as a format
+		String name = file + String.format(".%05d.err", chunk.number);
+		String reason = e.toString();
+		if ((e instanceof SQLException) && (((SQLException) e).getNextException() != null)) {
+			// batches often keep the actual reason here
+			reason += ": " + ((SQLException) e).getNextException().getMessage();
+		}
+		try {
+			FileChannel out = FileChannel.open(Paths.get(name), StandardOpenOption.CREATE,
+					StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+			try {
+				out.write(ByteBuffer.wrap(header));
+				long position = chunk.start;
+				while (position < chunk.end) {
+					position += channel.transferTo(position, chunk.end - position, out);
+				}
+			} finally {
+				out.close();
+			}
+		} catch (IOException x) {
+			failure = x;
+		}
+		synchronized (console) {
+			console.println("Error: chunk " + chunk.number + " (bytes " + chunk.start + "-" + chunk.end + "): "
+					+ reason + "; records written to " + name);
+		}
+	}
+
+	/**
+	 * Prints the rows loaded and how much of the file is done every second on
+	 * a terminal, or every ten seconds otherwise.
+	 */
+	private Thread startProgress(final long total) {
+		final boolean terminal = System.console() != null;
+		Thread thread = new Thread("jdbctool-import-progress") {
+			@Override
+			public void run() {
+				long start = System.nanoTime();
+				int ticks = 0;
+				try {
+					while (true) {
+						Thread.sleep(1000);
+						ticks++;
+						if (terminal || (ticks % 10 == 0)) {
+							printProgress(total, start, terminal ? "\r" : "", terminal ? "" : "\n");
+						}
+					}
+				} catch (InterruptedException e) {
+					if (terminal && (ticks > 0)) {
+						printProgress(total, start, "\r", "\n");
+					}
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+	private void printProgress(long total, long start, String before, String after) {
+		double seconds = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+		long done = rows.get();
+		String line = String.format("%,d rows, %d%% of %,d MB, %,.0f rows/s", done,
+				(total == 0) ? 100 : bytesDone.get() * 100 / total, total / (1024 * 1024), done / seconds);
+		synchronized (console) {
+			console.print(before + line + after);
+			console.flush();
+		}
+	}
+}
@@ -0,0 +1,110 @@
+/**
+ * JdbcTool: Command line pain relief for JDBC databases.
+ * Copyright (C) 2007, Quuxo Software.
+ * JdbcTool 2.0 - XLS, CSV, TEXT, HTML output and multi-tab features
+ * Copyright 2009-2017 Renny Koshy
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+package com.quuxo.jdbctool;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * Reads UTF-8 CSV records, as written by <code>CsvResultWriter</code>, from a
+ * buffer of whole records: an empty field is NULL and a quoted empty field is
+ * an empty string. Lines may end in LF or CRLF.
+ */
+class CsvReader {
+	private final ByteBuffer in;
+	private final byte delimiter;
+	private final byte quote;
+	private final ArrayList<String> values = new ArrayList<String>();
+	private byte[] field = new byte[256];
+	private int length;
+
+	CsvReader(ByteBuffer in, char delimiter, char quote) {
+		this.in = in;
+		this.delimiter = (byte) delimiter;
+		this.quote = (byte) quote;
+	}
+
+	/**
+	 * Returns the fields of the next record, or null at the end of the buffer.
+	 */
+	String[] next() {
+		if (!in.hasRemaining()) {
+			return null;
+		}
+		values.clear();
+		boolean more;
+		do {
+			length = 0;
+			boolean quoted = false;
+			if (in.hasRemaining() && (in.get(in.position()) == quote)) {
+				quoted = true;
+				in.get();
+				while (in.hasRemaining()) {
+					byte b = in.get();
+					if (b == quote) {
+						if (!in.hasRemaining() || (in.get(in.position()) != quote)) {
+							break;
+						}
+						in.get();
+					}
+					append(b);
+				}
+			}
+			int quotedLength = length;
+			more = false;
+			while (in.hasRemaining()) {
+				byte b = in.get();
+				if (b == delimiter) {
+					more = true;
+					break;
+				}
+				if (b == '\n') {
+					if ((length > quotedLength) && (field[length - 1] == '\r')) {
+						length--;
+					}
+					break;
+				}
+				append(b);
+			}
+			values.add((quoted || (length > 0)) ? new String(field, 0, length, StandardCharsets.UTF_8) : null);
+		} while (more);
+		return values.toArray(new String[values.size()]);
+	}
+
+	/**
+	 * The number of bytes read so far.
+	 */
+	int position() {
+		return in.position();
+	}
+
+	private void append(byte b) {
+		if (length == field.length) {
+			byte[] bigger = new byte[field.length * 2];
+			System.arraycopy(field, 0, bigger, 0, length);
+			field = bigger;
+		}
+		field[length++] = b;
+	}
+}
@@ -0,0 +1,88 @@
+/**
+ * JdbcTool: Command line pain relief for JDBC databases.
+ * Copyright (C) 2007, Quuxo Software.
+ * JdbcTool 2.0 - XLS, CSV, TEXT, HTML output and multi-tab features
+ * Copyright 2009-2017 Renny Koshy
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+package com.quuxo.jdbctool;
+
+import java.io.IOException;
+
+/**
+ * Comma separated values as described by RFC 4180. Fields holding the
+ * delimiter, the quote or a line break are quoted, NULL is an empty field and
+ * an empty string is a quoted empty field.
+ */
+public class CsvResultWriter extends StreamResultWriter {
+	private char delimiter;
+	private char quote;
+	// numbers and dates never need quoting with these separators
+	private boolean plainUnquoted;
+	private String lineEnding;
+
+	public String getFormat() {
+		return "csv";
+	}
+
+	@Override
+	public void open(OutputOptions options) throws IOException {
+		super.open(options);
+		delimiter = options.csvDelimiter;
+		quote = options.csvQuote;
+		plainUnquoted = ColumnCodec.isSafeSeparator(delimiter) && ColumnCodec.isSafeSeparator(quote);
+		lineEnding = (options.lineEnding != null) ? options.lineEnding : System.getProperty("line.separator");
+	}
+
+	@Override
+	public void beginPage() throws IOException {
+		if (options.headings && (options.title != null)) {
+			output.print(options.title);
+			output.print(lineEnding);
+		}
+	}
+
+	@Override
+	public void beginResult(String[] names, int[] types, int[] precisions, int[] scales, int[] widths)
+			throws IOException {
+		super.beginResult(names, types, precisions, scales, widths);
+		if (options.headings) {
+			formatRow(output, names);
+		}
+	}
+
+	@Override
+	public void formatRow(ChannelOutput out, Object[] values) throws IOException {
+		for (int i = 0; i < values.length; i++) {
+			if (i > 0) {
+				out.print(delimiter);
+			}
+			Object value = values[i];
+			if (value instanceof String) {
+				out.printCsvField((String) value, delimiter, quote);
+			} else if (value != null) {
+				if (plainUnquoted && ColumnCodec.isPlain(value)) {
+					ColumnCodec.print(out, value);
+				} else {
+					out.printCsvField(ColumnCodec.toText(value), delimiter, quote);
+				}
+			}
+		}
+		out.print(lineEnding);
+	}
+}
@@ -0,0 +1,236 @@
+/**
+ * JdbcTool: Command line pain relief for JDBC databases.
+ * Copyright (C) 2007, Quuxo Software.
+ * JdbcTool 2.0 - XLS, CSV, TEXT, HTML output and multi-tab features
+ * Copyright 2009-2017 Renny Koshy
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+package com.quuxo.jdbctool;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Driver specific fetch settings, picked from the JDBC URL prefix.
+ *
+ * Several of the bundled drivers read the whole result set into memory unless
+ * they are asked to stream: MySQL Connector/J needs a forward-only, read-only
+ * statement with a fetch size of <code>Integer.MIN_VALUE</code>, PostgreSQL
+ * only uses a cursor with autocommit off and a fetch size, and jTDS needs
+ * <code>useCursors=true</code>. Snowflake already streams result chunks.
+ *
+ * For the connections that import CSV files with prepared statement batches,
+ * MySQL and PostgreSQL are also asked to rewrite a batch of inserts into
+ * multi-row statements, which they don't do by default. Script batches are
+ * plain statements: pgjdbc doesn't rewrite those, and Connector/J would send
+ * them as one multi-query whose statements all fail together, so they are
+ * left alone.
+ */
+class FetchProfile {
+	static final int INITIAL_FETCH_SIZE = 1000;
+	static final int MIN_FETCH_SIZE = 100;
+	static final int MAX_FETCH_SIZE = 100000;
+	// Rough cap on the client memory a single fetch may use
+	static final long FETCH_MEMORY_BUDGET = 8L * 1024 * 1024;
+
+	private final String name;
+	private final String urlProperty;
+	private final String urlSeparator;
+	private final String batchProperty;
+	private final boolean autoCommitOff;
+	private final int fetchSize;
+	private final boolean adaptive;
+	private boolean turnedOffAutoCommit = false;
+
+	private FetchProfile(String name, String urlProperty, String urlSeparator, String batchProperty,
+			boolean autoCommitOff, int fetchSize, boolean adaptive) {
+		this.name = name;
+		this.urlProperty = urlProperty;
+		this.urlSeparator = urlSeparator;
+		this.batchProperty = batchProperty;
+		this.autoCommitOff = autoCommitOff;
+		this.fetchSize = fetchSize;
+		this.adaptive = adaptive;
+	}
+
+	/**
+	 * Picks the profile for a JDBC URL. A positive <code>fixedFetchSize</code>
+	 * replaces the profile's fetch size and turns off adaptive sizing.
+	 */
+	static FetchProfile forUrl(String url, int fixedFetchSize) {
+		FetchProfile profile;
+		if (url.startsWith("jdbc:mysql:")) {
+			// Row by row streaming; Connector/J ignores any other fetch size
+			// unless useCursorFetch is set, so there is nothing to adapt
+			profile = new FetchProfile("mysql", null, null, "rewriteBatchedStatements=true", false,
+					Integer.MIN_VALUE, false);
+		} else if (url.startsWith("jdbc:postgresql:")) {
+			profile = new FetchProfile("postgresql", null, null, "reWriteBatchedInserts=true", true,
+					INITIAL_FETCH_SIZE, true);
+		} else if (url.startsWith("jdbc:jtds:")) {
+			profile = new FetchProfile("jtds", "useCursors=true", ";", null, false, INITIAL_FETCH_SIZE, true);
+		} else if (url.startsWith("jdbc:snowflake:")) {
+			// The driver downloads result chunks in the background already
+			profile = new FetchProfile("snowflake", null, null, null, false, 0, false);
+		} else {
+			profile = new FetchProfile("default", null, null, null, false, 0, false);
+		}
+		if (fixedFetchSize > 0) {
+			return new FetchProfile(profile.name, profile.urlProperty, profile.urlSeparator, profile.batchProperty,
+					profile.autoCommitOff, fixedFetchSize, false);
+		}
+		return profile;
+	}
+
+	String getName() {
+		return name;
+	}
+
+	/**
+	 * Adds any connection property the profile needs, and the batch rewrite
+	 * property if the connection will run <code>preparedBatches</code>,
+	 * unless the user already set them in the URL.
+	 */
+	String prepareUrl(String url, boolean preparedBatches) {
+		url = addProperty(url, urlProperty);
+		if (preparedBatches) {
+			url = addProperty(url, batchProperty);
+		}
+		return url;
+	}
+
+	private String addProperty(String url, String property) {
+		if (property == null) {
+			return url;
+		}
+		String key = property.substring(0, property.indexOf('=') + 1);
+		if (url.toLowerCase().contains(key.toLowerCase())) {
+			return url;
+		}
+		if (urlSeparator != null) {
+			return url + urlSeparator + property;
+		}
+		// query string style
+		return url + ((url.indexOf('?') < 0) ? "?" : "&") + property;
+	}
+
+	Statement createStatement(Connection connection) throws SQLException {
+		if (autoCommitOff && connection.getAutoCommit()) {
+			connection.setAutoCommit(false);
+			turnedOffAutoCommit = true;
+		}
+		Statement statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		if (fetchSize != 0) {
+			statement.setFetchSize(fetchSize);
+		}
+		return statement;
+	}
+
+	/**
+	 * True if the profile turned autocommit off to get a cursor, in which case
+	 * each statement has to be committed by the caller.
+	 */
+	boolean turnedOffAutoCommit() {
+		return turnedOffAutoCommit;
+	}
+
+	/**
+	 * Returns a tuner for a freshly opened result set, or null if the fetch
+	 * size is fixed.
+	 */
+	FetchTuner newTuner(Statement statement, ResultSet results) {
+		if (!adaptive) {
+			return null;
+		}
+		int size = INITIAL_FETCH_SIZE;
+		try {
+			size = Math.max(MIN_FETCH_SIZE, statement.getFetchSize());
+		} catch (SQLException e) {
+			// keep the default
+		}
+		return new FetchTuner(statement, results, size);
+	}
+
+	/**
+	 * Adjusts the fetch size of an open result set from the measured row size
+	 * and round trip time. Each window of <code>fetchSize</code> rows holds
+	 * about one round trip, which shows up as the slowest
+	 * <code>next()</code> in the window. While that round trip is more than a
+	 * quarter of the window the fetch size is doubled, and it is cut back to
+	 * whatever fits in <code>FETCH_MEMORY_BUDGET</code> for the rows seen.
+	 */
+	static class FetchTuner {
+		private final Statement statement;
+		private final ResultSet results;
+		private int fetchSize;
+		private int rows = 0;
+		private long bytes = 0;
+		private long slowest = 0;
+		private long windowStart = System.nanoTime();
+
+		FetchTuner(Statement statement, ResultSet results, int fetchSize) {
+			this.statement = statement;
+			this.results = results;
+			this.fetchSize = fetchSize;
+		}
+
+		boolean next() throws SQLException {
+			long start = System.nanoTime();
+			boolean more = results.next();
+			slowest = Math.max(slowest, System.nanoTime() - start);
+			return more;
+		}
+
+		void rowFetched(Object[] values) {
+			for (int i = 0; i < values.length; i++) {
+				bytes += ColumnCodec.heapSize(values[i]);
+			}
+			if (++rows >= fetchSize) {
+				adjust();
+			}
+		}
+
+		private void adjust() {
+			long window = Math.max(1, System.nanoTime() - windowStart);
+			long rowBytes = Math.max(1, bytes / rows);
+			int limit = (int) Math.min(MAX_FETCH_SIZE, Math.max(MIN_FETCH_SIZE, FETCH_MEMORY_BUDGET / rowBytes));
+			int size = fetchSize;
+			if (slowest * 4 > window) {
+				size = fetchSize * 2;
+			}
+			size = Math.max(MIN_FETCH_SIZE, Math.min(limit, size));
+			if (size != fetchSize) {
+				try {
+					results.setFetchSize(size);
+					// so the next statement starts from what we learned
+					statement.setFetchSize(size);
+					fetchSize = size;
+				} catch (SQLException e) {
+					// driver won't change it mid-stream; stop trying
+					fetchSize = Integer.MAX_VALUE;
+				}
+			}
+			rows = 0;
+			bytes = 0;
+			slowest = 0;
+			windowStart = System.nanoTime();
+		}
+	}
+}
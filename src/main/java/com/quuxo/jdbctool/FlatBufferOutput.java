@@ -0,0 +1,167 @@
+/**
+ * JdbcTool: Command line pain relief for JDBC databases.
+ * Copyright (C) 2007, Quuxo Software.
+ * JdbcTool 2.0 - XLS, CSV, TEXT, HTML output and multi-tab features
+ * Copyright 2009-2017 Renny Koshy
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+package com.quuxo.jdbctool;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Just enough of FlatBuffers to write Arrow IPC message headers: tables with
+ * scalar and offset fields, strings, and vectors of tables or structs.
+ *
+ * The usual builders work back to front so that every child is finished
+ * before its parent. This one writes front to back instead, which keeps the
+ * calling code in reading order: each table is written with placeholders for
+ * its offset fields, and <code>link</code> points a placeholder at the child
+ * written next. Offsets only ever point forward, as the format requires.
+ * One table is open at a time; its vtable goes right in front of it.
+ */
+class FlatBufferOutput {
+	private final ByteSink out = new ByteSink(512);
+	private int vtable;
+	private int table;
+
+	ByteSink bytes() {
+		return out;
+	}
+
+	void clear() {
+		out.clear();
+	}
+
+	/**
+	 * Writes the root offset, which is then linked to the root table.
+	 */
+	int root() {
+		out.putInt(0);
+		return 0;
+	}
+
+	/**
+	 * Starts a table with room for <code>fields</code> fields and returns its
+	 * position, to <code>link</code> to. Fields that are not added are left at
+	 * their defaults.
+	 */
+	int beginTable(int fields) {
+		out.align(8);
+		vtable = out.size();
+		out.putShort(4 + fields * 2);
+		for (int i = 0; i <= fields; i++) {
+			out.putShort(0);
+		}
+		out.align(8);
+		table = out.size();
+		out.putInt(table - vtable);
+		return table;
+	}
+
+	private void field(int id, int size) {
+		out.align(size);
+		out.putShort(vtable + 4 + id * 2, out.size() - table);
+	}
+
+	void addByte(int id, int value) {
+		field(id, 1);
+		out.put(value);
+	}
+
+	void addShort(int id, int value) {
+		field(id, 2);
+		out.putShort(value);
+	}
+
+	void addInt(int id, int value) {
+		field(id, 4);
+		out.putInt(value);
+	}
+
+	void addLong(int id, long value) {
+		field(id, 8);
+		out.putLong(value);
+	}
+
+	/**
+	 * Adds an offset field and returns its position, to <code>link</code> it
+	 * once the child it points at has been started.
+	 */
+	int addOffset(int id) {
+		field(id, 4);
+		out.putInt(0);
+		return out.size() - 4;
+	}
+
+	void endTable() {
+		out.putShort(vtable + 2, out.size() - table);
+	}
+
+	/**
+	 * Points the offset at <code>from</code> to <code>target</code>.
+	 */
+	void link(int from, int target) {
+		out.putInt(from, target - from);
+	}
+
+	int string(String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.align(4);
+		int at = out.size();
+		out.putInt(bytes.length);
+		out.put(bytes);
+		out.put(0);
+		return at;
+	}
+
+	/**
+	 * Starts a vector of <code>size</code> offsets and returns its position.
+	 * Element <code>i</code> is then linked at <code>element(vector, i)</code>.
+	 */
+	int offsetVector(int size) {
+		out.align(4);
+		int at = out.size();
+		out.putInt(size);
+		for (int i = 0; i < size; i++) {
+			out.putInt(0);
+		}
+		return at;
+	}
+
+	static int element(int vector, int index) {
+		return vector + 4 + index * 4;
+	}
+
+	/**
+	 * Starts a vector of <code>size</code> structs made of longs, which the
+	 * caller then writes with <code>putLong</code>, and returns its position.
+	 */
+	int structVector(int size) {
+		while ((out.size() + 4) % 8 != 0) {
+			out.put(0);
+		}
+		int at = out.size();
+		out.putInt(size);
+		return at;
+	}
+
+	void putLong(long value) {
+		out.putLong(value);
+	}
+}
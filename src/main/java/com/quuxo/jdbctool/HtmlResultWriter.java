@@ -0,0 +1,151 @@
+/**
+ * JdbcTool: Command line pain relief for JDBC databases.
+ * Copyright (C) 2007, Quuxo Software.
+ * JdbcTool 2.0 - XLS, CSV, TEXT, HTML output and multi-tab features
+ * Copyright 2009-2017 Renny Koshy
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+package com.quuxo.jdbctool;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * HTML pages with the style sheet merged in, so they can be mailed as is.
+ *
+ * The page prologue (doctype, title and style sheet) is built and encoded
+ * once per session and copied to the output for every page. Cell text is
+ * escaped as it is written, and alignment and width come from style rules
+ * rather than attributes repeated on every cell.
+ */
+public class HtmlResultWriter extends StreamResultWriter {
+	private static final String DEFAULT_CSS_FILE = "style.css";
+	// What the align and width attributes used to do, as the first rules so
+	// that the style sheet that follows can still override them
+	private static final String BASE_STYLE = "<style type=\"text/css\">"
+			+ "table { width: 100%; } th, td { text-align: center; }</style>";
+	private byte[] prologue;
+
+	public String getFormat() {
+		return "html";
+	}
+
+	@Override
+	public void open(OutputOptions options) throws IOException {
+		super.open(options);
+		prologue = buildPrologue();
+	}
+
+	private byte[] buildPrologue() throws IOException {
+		ChannelOutput page = ChannelOutput.inMemory(8192);
+		String title = options.title;
+		if ((title != null) && title.startsWith("{") && (title.indexOf('}') > 0)) {
+			// drop the XLS cell format
+			title = title.substring(title.indexOf('}') + 1);
+		}
+		page.println("<!DOCTYPE html>");
+		page.print("<html><head><title>");
+		if (title != null) {
+			page.printHtml(title);
+		}
+		page.println("</title><meta http-equiv=\"content-type\" content=\"text/html;charset=UTF-8\"/>");
+		page.println(BASE_STYLE);
+		InputStream in = null;
+		try {
+			if (options.cssFile != null) {
+				in = new FileInputStream(options.cssFile);
+			} else {
+				in = this.getClass().getClassLoader().getResourceAsStream(DEFAULT_CSS_FILE);
+			}
+			BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+			String line = null;
+			while ((line = reader.readLine()) != null) {
+				page.println(line);
+			}
+		} catch (IOException x) {
+			System.err.println(x);
+		} finally {
+			if (in != null) {
+				in.close();
+			}
+		}
+		page.println("</head>");
+		page.println("<body>");
+		if (title != null) {
+			page.println("<table class=\"title\">");
+			page.print("<tr><th class=\"title\">");
+			page.printHtml(title);
+			page.println("</th></tr>");
+			page.println("</table>");
+		}
+		return page.toByteArray();
+	}
+
+	@Override
+	public void beginPage() throws IOException {
+		if (options.headings) {
+			output.write(prologue, 0, prologue.length);
+		}
+	}
+
+	@Override
+	public void beginResult(String[] names, int[] types, int[] precisions, int[] scales, int[] widths)
+			throws IOException {
+		super.beginResult(names, types, precisions, scales, widths);
+		output.println("<table class=\"results\">");
+		if (options.headings) {
+			output.print("<tr>");
+			for (int i = 0; i < names.length; i++) {
+				output.print("<th>");
+				output.printHtml(names[i]);
+				output.print("</th>");
+			}
+			output.println("</tr>");
+		}
+	}
+
+	@Override
+	public void formatRow(ChannelOutput out, Object[] values) throws IOException {
+		out.print("<tr>");
+		for (int i = 0; i < values.length; i++) {
+			out.print("<td>");
+			// the values are the driver's strings (see printsDriverText), so
+			// text() only stands in for NULL and makes no new string
+			out.printHtml(text(values[i]));
+			out.print("</td>");
+		}
+		out.println("</tr>");
+	}
+
+	@Override
+	public void endResult() throws IOException {
+		output.println("</table>");
+		output.println();
+	}
+
+	@Override
+	public void endPage() throws IOException {
+		output.println("</body>");
+		output.println("</html>");
+		super.endPage();
+	}
+}
@@ -0,0 +1,164 @@
+/**
+ * JdbcTool: Command line pain relief for JDBC databases.
+ * Copyright (C) 2007, Quuxo Software.
+ * JdbcTool 2.0 - XLS, CSV, TEXT, HTML output and multi-tab features
+ * Copyright 2009-2017 Renny Koshy
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+package com.quuxo.jdbctool;
+
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.HashMap;
+
+/**
+ * Loads CSV records with batched INSERTs through a prepared statement. Each
+ * field is bound as its column's type and left to the driver to convert,
+ * except binary, which the CSV output writes as hex.
+ */
+class InsertLoader implements CsvImport.Loader {
+	private final String sql;
+	private final int[] types;
+	private final char delimiter;
+	private final char quote;
+	private final int batchRows;
+
+	InsertLoader(String table, String[] columns, int[] types, char delimiter, char quote, int batchRows) {
+		StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+		StringBuilder values = new StringBuilder();
+		for (int i = 0; i < columns.length; i++) {
+			if (i > 0) {
+				sql.append(", ");
+				values.append(", ");
+			}
+			sql.append(columns[i]);
+			values.append('?');
+		}
+		this.sql = sql.append(") VALUES (").append(values).append(')').toString();
+		this.types = types;
+		this.delimiter = delimiter;
+		this.quote = quote;
+		this.batchRows = batchRows;
+	}
+
+	/**
+	 * Matches the header's names to the columns of <code>table</code>,
+	 * ignoring case, and returns the table's own names quoted with the
+	 * driver's identifier quote. Reserved words and names with spaces then
+	 * work, and a header can only name columns that exist. The columns'
+	 * types are put in <code>types</code>.
+	 */
+	static String[] quoteColumns(Connection connection, String table, String[] header, int[] types)
+			throws SQLException {
+		String quote = connection.getMetaData().getIdentifierQuoteString();
+		if ((quote == null) || quote.trim().isEmpty()) {
+			quote = "";
+		}
+		Statement statement = connection.createStatement();
+		try {
+			ResultSet results = statement.executeQuery("SELECT * FROM " + table + " WHERE 1 = 0");
+			ResultSetMetaData meta = results.getMetaData();
+			HashMap<String, Integer> columns = new HashMap<String, Integer>();
+			for (int i = 1; i <= meta.getColumnCount(); i++) {
+				columns.put(meta.getColumnName(i).toLowerCase(), i);
+			}
+			String[] quoted = new String[header.length];
+			for (int i = 0; i < header.length; i++) {
+				Integer column = (header[i] == null) ? null : columns.get(header[i].toLowerCase());
+				if (column == null) {
+					throw new SQLException(table + " has no column " + header[i]);
+				}
+				String name = meta.getColumnName(column);
+				quoted[i] = quote + (quote.isEmpty() ? name : name.replace(quote, quote + quote)) + quote;
+				types[i] = meta.getColumnType(column);
+			}
+			results.close();
+			return quoted;
+		} finally {
+			statement.close();
+		}
+	}
+
+	public long load(Connection connection, ByteBuffer records) throws SQLException {
+		PreparedStatement insert = connection.prepareStatement(sql);
+		try {
+			CsvReader reader = new CsvReader(records, delimiter, quote);
+			long rows = 0;
+			int pending = 0;
+			String[] fields;
+			while ((fields = reader.next()) != null) {
+				if (fields.length != types.length) {
+					if ((fields.length == 1) && (fields[0] == null)) {
+						// blank line
+						continue;
+					}
+					throw new SQLException("Record " + (rows + 1) + " of the chunk has " + fields.length
+							+ " fields, expected " + types.length);
+				}
+				for (int i = 0; i < fields.length; i++) {
+					bind(insert, i + 1, fields[i], types[i]);
+				}
+				insert.addBatch();
+				rows++;
+				if (++pending == batchRows) {
+					insert.executeBatch();
+					pending = 0;
+				}
+			}
+			if (pending > 0) {
+				insert.executeBatch();
+			}
+			return rows;
+		} finally {
+			insert.close();
+		}
+	}
+
+	private static void bind(PreparedStatement insert, int index, String value, int type) throws SQLException {
+		if (value == null) {
+			insert.setNull(index, type);
+			return;
+		}
+		switch (type) {
+		case Types.CHAR:
+		case Types.VARCHAR:
+		case Types.LONGVARCHAR:
+		case Types.NCHAR:
+		case Types.NVARCHAR:
+		case Types.LONGNVARCHAR:
+		case Types.CLOB:
+		case Types.NCLOB:
+			insert.setString(index, value);
+			break;
+		case Types.BINARY:
+		case Types.VARBINARY:
+		case Types.LONGVARBINARY:
+		case Types.BLOB:
+			insert.setBytes(index, ColumnCodec.parseHex(value));
+			break;
+		default:
+			insert.setObject(index, value, type);
+		}
+	}
+}
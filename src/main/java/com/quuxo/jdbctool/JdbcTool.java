@@ -22,39 +22,35 @@
 
 package com.quuxo.jdbctool;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.EOFException;
-import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
 import java.sql.SQLWarning;
 import java.sql.Statement;
 import java.sql.Types;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.StringTokenizer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
-import org.apache.poi.hssf.usermodel.HSSFCell;
-import org.apache.poi.hssf.usermodel.HSSFCellStyle;
-import org.apache.poi.hssf.usermodel.HSSFDataFormat;
-import org.apache.poi.hssf.usermodel.HSSFFont;
-import org.apache.poi.hssf.usermodel.HSSFRichTextString;
-import org.apache.poi.hssf.usermodel.HSSFRow;
-import org.apache.poi.hssf.usermodel.HSSFSheet;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
-import org.apache.poi.hssf.util.CellRangeAddress;
-import org.apache.poi.poifs.filesystem.POIFSFileSystem;
 import org.gnu.readline.Readline;
 import org.gnu.readline.ReadlineLibrary;
 
@@ -66,80 +62,104 @@ import gnu.getopt.Getopt;
  * @author <a href="mailto:michael@quuxo.com">Michael Gratton</a>
  */
 public class JdbcTool {
-	private static final String DEFAULT_CSS_FILE = "style.css";
+	// Display size hints above this are treated as "unbounded" (e.g. TEXT,
+	// VARCHAR(4000)) and ignored when sizing TEXT columns
+	private static final int MAX_DISPLAY_SIZE_HINT = 40;
 	protected String[] driverNames = new String[] { "org.hsqldb.jdbcDriver", "net.sourceforge.jtds.jdbc.Driver",
 			"com.mysql.jdbc.Driver", "org.postgresql.Driver", "net.snowflake.client.jdbc.SnowflakeDriver" };
 	protected Connection connection;
 	protected Statement statement;
 	protected char eol = System.getProperty("line.separator").charAt(0);
 	protected String prompt;
-	protected static OutputFormat outputFormat = OutputFormat.TEXT;
-	private static String title = null;
+	protected String url;
+	protected static ResultWriter writer = null;
 	protected String history;
-	private HSSFWorkbook workbook;
-	private FileOutputStream outputStream;
-	private HSSFSheet currentSheet;
-	private HSSFCellStyle textCellStyle;
-	private HSSFCellStyle floatingCellStyle;
-	private HSSFCellStyle integerCellStyle;
-	private HSSFCellStyle headerCellStyle;
-	private HSSFFont titleFont;
-	private HashMap<String, HSSFCellStyle> cellStyles = new HashMap<String, HSSFCellStyle>();
-	private static String currentSheetName = "";
-	private int resultSetNum = 0;
-	private int currentSheetCounter = 0;
-	private static boolean showResultsOnly = false;
-	private static String cssFile;
 	private static boolean quiet;
-	private static String outputFile = null;
-
-	private static PrintStream output = null;
-	private static boolean headings = true;
-	private static boolean append = false;
-	private static List<String> tabNames = new ArrayList<String>();
-	private static List<String> tabTitles = new ArrayList<String>();
-	private static boolean incrementTab = false;
-
-	private enum OutputFormat {
-		TEXT, HTML, XLS, CSV
-	};
+	// statements to run instead of reading them from the terminal
+	private static String script = null;
+	private static String scriptFile = null;
+	private final boolean interactive;
+	private BufferedReader input;
+	private int failedStatements = 0;
+	// DML statements per JDBC batch in scripts
+	private static int batchSize = 100;
+	private Statement batchStatement;
+	private final ArrayList<String> batch = new ArrayList<String>();
+	private final ArrayList<Integer> batchLines = new ArrayList<Integer>();
+	// grouped commits for scripts; off unless -c or -I is given
+	private static int commitStatements = 0;
+	private static int commitSeconds = 0;
+	private static boolean stopOnError = false;
+	private CommitGroup commitGroup;
+	private boolean stopped = false;
+	// import <file> into <table>, the file name optionally in single quotes
+	private static final Pattern IMPORT = Pattern.compile("import\\s+(?:'([^']*)'|(\\S+))\\s+into\\s+(\\S+)",
+			Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+	private static int importConnections = 4;
+	private final String username;
+	private final String password;
+	// where prompts, warnings and the like go
+	private static PrintStream console = System.out;
+	private static OutputOptions options = new OutputOptions();
+	private static int widthSampleRows = 1000;
+	private HashMap<String, int[]> rememberedWidths = new HashMap<String, int[]>();
+	private String currentStatement;
+	private static int fixedFetchSize = 0;
+	private FetchProfile fetchProfile;
+	private FetchProfile.FetchTuner fetchTuner;
+	private ColumnCodec[] codecs;
+	private int[] precisions;
+	private int[] scales;
+	private static int bufferMemoryMB = 64;
+	private RowBuffer rowBuffer;
+	private static final int ROW_BATCH_SIZE = 1000;
+	private static final int PIPELINE_DEPTH = 4;
+	private static boolean pipelined = false;
+	private static int formatThreads = 1;
+	private ForkJoinPool formatPool;
 
 	public JdbcTool(String url, String username, String password) throws SQLException, Exception {
 		loadDrivers();
-		this.connection = DriverManager.getConnection(url, username, password);
+		this.url = url;
+		this.username = username;
+		this.password = password;
+		this.fetchProfile = FetchProfile.forUrl(url, fixedFetchSize);
+		this.connection = DriverManager.getConnection(fetchProfile.prepareUrl(url, false), username, password);
 		setPrompt(url.startsWith("jdbc:") ? url.substring("jdbc:".length()) : url);
-		this.statement = this.connection.createStatement();
+		if (((script != null) || (scriptFile != null)) && ((commitStatements > 0) || (commitSeconds > 0))) {
+			// before the fetch profile looks at autocommit
+			this.commitGroup = new CommitGroup(this.connection, commitStatements, commitSeconds);
+		}
+		this.statement = fetchProfile.createStatement(this.connection);
 		this.history = System.getProperty("user.home") + "/.jdbctool_history";
+		// no line editing or history for scripts and piped input
+		this.interactive = (script == null) && (scriptFile == null) && (System.console() != null);
 
-		// readline init
-		try {
-			Readline.load(ReadlineLibrary.GnuReadline);
-		} catch (UnsatisfiedLinkError ule) {
-			if (!quiet)
-				System.err.println("Java-Readline not found, using simple stdin.");
+		if (interactive) {
+			// readline init
+			try {
+				Readline.load(ReadlineLibrary.GnuReadline);
+			} catch (UnsatisfiedLinkError ule) {
+				if (!quiet)
+					System.err.println("Java-Readline not found, using simple stdin.");
+			}
+			Readline.initReadline("JdbcTool");
+			try {
+				Readline.readHistoryFile(this.history);
+			} catch (Exception e) {
+				e.printStackTrace();
+				// oh well
+			}
+		} else {
+			input = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8), 64 * 1024);
 		}
-		Readline.initReadline("JdbcTool");
+
 		try {
-			Readline.readHistoryFile(this.history);
+			writer.open(options);
 		} catch (Exception e) {
-			e.printStackTrace();
-			// oh well
-		}
-
-		if (outputFile != null) {
-			if (outputFormat != OutputFormat.XLS) {
-				// Everything else
-				try {
-					outputStream = new FileOutputStream(outputFile);
-					output = new PrintStream(outputStream);
-				} catch (Exception e) {
-					System.err.println("Could not open output file '" + outputFile + "'");
-					e.printStackTrace(System.err);
-					throw e;
-				}
-			}
-		} else {
-			output = System.out;
+			System.err.println("Could not open output file '" + options.outputFile + "'");
+			e.printStackTrace(System.err);
+			throw e;
 		}
 	}
 
@@ -161,547 +181,752 @@ public class JdbcTool {
 	}
 
 	public void close() throws Exception {
+		writer.close();
+		if (rowBuffer != null) {
+			rowBuffer.close();
+		}
+		if (formatPool != null) {
+			formatPool.shutdown();
+		}
 		this.connection.close();
-		try {
-			Readline.writeHistoryFile(this.history);
-		} catch (Exception e) {
-			// oh well
+		if (interactive) {
+			try {
+				Readline.writeHistoryFile(this.history);
+			} catch (Exception e) {
+				// oh well
+			}
+			Readline.cleanup();
 		}
-		Readline.cleanup();
+	}
+
+	/**
+	 * The number of statements that failed.
+	 */
+	public int getFailedStatements() {
+		return failedStatements;
 	}
 
 	public void start() throws Exception {
+		if ((script != null) || (scriptFile != null)) {
+			runScript();
+			return;
+		}
 		// let's go!
-		boolean originalAppend = append;
 		while (true) {
 			try {
 				String line;
-				append = originalAppend;
-				line = Readline.readline(quiet ? "" : this.prompt);
+				line = readLine();
 				if (line != null) {
 					if (line.equalsIgnoreCase("quit") || line.equalsIgnoreCase("exit")) {
 						throw new EOFException();
 					}
-					if (outputFormat == OutputFormat.XLS) {
-						try {
-							if (!append) {
-								workbook = new HSSFWorkbook();
-								outputStream = new FileOutputStream(outputFile);
-							} else if (workbook == null) {
-								try {
-									POIFSFileSystem fileSystem = new POIFSFileSystem(new FileInputStream(outputFile));
-									// Read in the data, since we're about to
-									// overwrite
-									workbook = new HSSFWorkbook(fileSystem);
-									// Make sure we can open it for output
-									outputStream = new FileOutputStream(outputFile);
-									// set headers = off, turn off titles
-									headings = false;
-									title = null;
-								} catch (IOException e) {
-									// File does not exist, so try to create it
-									originalAppend = true;
-									append = false;
-									workbook = new HSSFWorkbook();
-									outputStream = new FileOutputStream(outputFile);
-								}
-
-							}
-							textCellStyle = workbook.createCellStyle();
-							// stextCellStyle.setAlignment(HSSFCellStyle.ALIGN_FILL);
-
-							floatingCellStyle = workbook.createCellStyle();
-							floatingCellStyle.setAlignment(HSSFCellStyle.ALIGN_RIGHT);
-							HSSFDataFormat format = workbook.createDataFormat();
-							floatingCellStyle.setDataFormat(format.getFormat("###,###,###,##0.00"));
-
-							integerCellStyle = workbook.createCellStyle();
-							integerCellStyle.setAlignment(HSSFCellStyle.ALIGN_RIGHT);
-							integerCellStyle.setDataFormat(format.getFormat("###########0"));
-
-							titleFont = workbook.createFont();
-							titleFont.setFontHeightInPoints((short) 16);
-							titleFont.setFontName("Arial Black");
-							titleFont.setItalic(true);
-
-							headerCellStyle = workbook.createCellStyle();
-							headerCellStyle.setAlignment(HSSFCellStyle.ALIGN_CENTER);
-							headerCellStyle.setVerticalAlignment(HSSFCellStyle.VERTICAL_CENTER);
-							headerCellStyle.setFont(titleFont);
-						} catch (Exception e) {
-							System.err.println("Could not open output file '" + outputFile + "'");
-							e.printStackTrace(System.err);
-							throw e;
-						}
-					}
-					if (!incrementTab)
-						resultSetNum = 0;
-
-					execute(line);
-					// If there is a workbook, write it out to file
-					if (workbook != null) {
-						workbook.write(outputStream);
-						outputStream.flush();
-					}
-					// Close the output writer
-					if (output != null) {
-						output.close();
+					if (!runCommand(line)) {
+						execute(line);
 					}
 				}
 			} catch (EOFException e) {
-				System.out.println();
+				console.println();
 				break;
 			} catch (SQLException e) {
+				failedStatements++;
 				printLineError(e.toString());
 			}
 		}
 	}
 
-	protected void execute(String line) throws SQLException {
-		boolean hasResults = this.statement.execute(line);
-		printResults();
+	/**
+	 * Reads one statement per line, with Readline on a terminal. Returns null
+	 * for an empty line and throws EOFException at the end of the input.
+	 */
+	protected String readLine() throws IOException {
+		if (interactive) {
+			return Readline.readline(quiet ? "" : this.prompt);
+		}
+		String line = input.readLine();
+		if (line == null) {
+			throw new EOFException();
+		}
+		return line.isEmpty() ? null : line;
 	}
 
-	protected void printResults() throws SQLException {
-		printPageHeader();
+	/**
+	 * Runs the statements of <code>-e</code> or <code>-F</code>, which may
+	 * span lines, with the output kept open throughout. Runs of INSERT, UPDATE
+	 * and DELETE statements are sent as JDBC batches of up to
+	 * <code>-n</code> statements. A failed statement is reported with its line
+	 * number and the script carries on, unless <code>-x</code> is given. With
+	 * <code>-c</code> or <code>-I</code> the statements run in grouped
+	 * transactions, and a failure rolls back the rest of its group.
+	 */
+	protected void runScript() throws IOException {
+		Reader in;
+		if (script != null) {
+			in = new StringReader(script);
+		} else if (scriptFile.equals("-")) {
+			in = new InputStreamReader(System.in, StandardCharsets.UTF_8);
+		} else {
+			in = new InputStreamReader(new FileInputStream(scriptFile), StandardCharsets.UTF_8);
+		}
+		// a batch never spans a commit
+		int batchLimit = batchSize;
+		if (commitStatements > 0) {
+			batchLimit = Math.min(batchLimit, commitStatements);
+		}
+		try {
+			StatementSplitter statements = StatementSplitter.forUrl(in, url);
+			String sql;
+			while (!stopped && ((sql = statements.next()) != null)) {
+				if ((batchSize > 1) && isBatchable(sql)) {
+					batch.add(sql);
+					batchLines.add(statements.getLine());
+					if (batch.size() >= batchLimit) {
+						flushBatch();
+					}
+					continue;
+				}
+				flushBatch();
+				if (stopped || sql.equalsIgnoreCase("quit") || sql.equalsIgnoreCase("exit")) {
+					break;
+				}
+				runStatement(sql, statements.getLine());
+			}
+			if (!stopped) {
+				flushBatch();
+			}
+			if ((commitGroup != null) && !stopped) {
+				try {
+					commitGroup.commit();
+				} catch (SQLException e) {
+					statementFailed("commit", e);
+				}
+			}
+		} finally {
+			in.close();
+		}
+		if ((commitGroup != null) && !quiet) {
+			console.println(commitGroup.summary());
+		}
+	}
+
+	private void runStatement(String sql, int line) throws IOException {
+		try {
+			if (!runCommand(sql)) {
+				execute(sql);
+				if (commitGroup != null) {
+					commitGroup.executed(1);
+					commitGroup.commitIfDue();
+				}
+			}
+		} catch (SQLException e) {
+			statementFailed("line " + line, e);
+		}
+	}
+
+	/**
+	 * Reports a failed script statement, rolls back its commit group and
+	 * stops the script if <code>-x</code> was given.
+	 */
+	private void statementFailed(String where, SQLException e) {
+		failedStatements++;
+		printLineError(where + ": " + e);
+		if (commitGroup != null) {
+			int lost = commitGroup.rollback();
+			if (lost > 0) {
+				printLineWarning("rolled back " + lost + " statement(s)");
+			}
+		}
+		if (stopOnError) {
+			stopped = true;
+		}
+	}
+
+	/**
+	 * True for DML that returns nothing but an update count.
+	 */
+	private static boolean isBatchable(String sql) {
+		int end = 0;
+		while ((end < sql.length()) && Character.isLetter(sql.charAt(end))) {
+			end++;
+		}
+		String verb = sql.substring(0, end);
+		if (!(verb.equalsIgnoreCase("insert") || verb.equalsIgnoreCase("update")
+				|| verb.equalsIgnoreCase("delete"))) {
+			return false;
+		}
+		// RETURNING makes it a query
+		return !sql.toLowerCase().contains("returning");
+	}
+
+	/**
+	 * Sends the queued statements as one batch and reports the update count
+	 * of each. If the batch fails, the statements the driver failed or did
+	 * not get to, or all of them if the failure rolled them back, are run one
+	 * at a time, so each error is reported against its own statement.
+	 */
+	protected void flushBatch() throws IOException {
+		if (batch.isEmpty()) {
+			return;
+		}
+		int done = 0;
+		int[] counts = null;
+		boolean executed = false;
+		try {
+			if (batchStatement == null) {
+				batchStatement = connection.createStatement();
+			}
+			for (String sql : batch) {
+				batchStatement.addBatch(sql);
+			}
+			try {
+				counts = batchStatement.executeBatch();
+			} finally {
+				batchStatement.clearBatch();
+			}
+			if (fetchProfile.turnedOffAutoCommit()) {
+				connection.commit();
+			}
+			reportUpdateCounts(counts);
+			done = batch.size();
+			executed = true;
+		} catch (BatchUpdateException e) {
+			counts = e.getUpdateCounts();
+			if (commitGroup != null) {
+				// the group goes with the failed statement; carry on after it
+				int failed = failedIndex(counts);
+				commitGroup.executed(failed);
+				statementFailed("line " + batchLines.get(failed), e);
+				done = failed + 1;
+				// the rollback took the rest of the batch with it
+				counts = null;
+			} else if (fetchProfile.turnedOffAutoCommit()) {
+				// the whole batch is gone with the transaction
+				rollback();
+				counts = null;
+			} else if (counts != null) {
+				// the failed statements are rerun below for their own errors
+				reportUpdateCounts(counts);
+				done = Math.min(counts.length, batch.size());
+			}
+		} catch (SQLException e) {
+			if (fetchProfile.turnedOffAutoCommit()) {
+				rollback();
+			}
+			if (e instanceof SQLFeatureNotSupportedException) {
+				printLineWarning("the driver can't batch, running statements one at a time");
+				batchSize = 1;
+			} else {
+				printLineWarning("batch failed, running its statements one at a time: " + e);
+			}
+		}
+		if (executed && (commitGroup != null)) {
+			commitGroup.executed(batch.size());
+			try {
+				commitGroup.commitIfDue();
+			} catch (SQLException e) {
+				statementFailed("line " + batchLines.get(batch.size() - 1), e);
+			}
+		}
+		for (int i = 0; (i < batch.size()) && !stopped; i++) {
+			if ((i >= done) || ((counts != null) && (i < counts.length) && (counts[i] == Statement.EXECUTE_FAILED))) {
+				runStatement(batch.get(i), batchLines.get(i));
+			}
+		}
+		batch.clear();
+		batchLines.clear();
+	}
+
+	/**
+	 * The position in the batch of the statement that failed it.
+	 */
+	private int failedIndex(int[] counts) {
+		if (counts == null) {
+			return 0;
+		}
+		if (counts.length < batch.size()) {
+			// the driver stopped at the failure
+			return counts.length;
+		}
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] == Statement.EXECUTE_FAILED) {
+				return i;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Reports the update count of each batched statement that succeeded.
+	 * Drivers that don't count rows only say that the statements succeeded,
+	 * which is not reported.
+	 */
+	private void reportUpdateCounts(int[] counts) throws IOException {
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] >= 0) {
+				writer.beginPage();
+				writer.writeUpdateCount(counts[i]);
+				writer.endPage();
+			}
+		}
+	}
+
+	private void rollback() {
+		try {
+			connection.rollback();
+		} catch (SQLException x) {
+			// report the original error
+		}
+	}
+
+	/**
+	 * Runs <code>line</code> if it is one of JdbcTool's own commands rather
+	 * than SQL, and returns whether it was.
+	 */
+	protected boolean runCommand(String line) throws SQLException, IOException {
+		if (line.equalsIgnoreCase("checkpoint")) {
+			checkpoint();
+			return true;
+		}
+		Matcher command = IMPORT.matcher(line);
+		if (command.matches()) {
+			importCsv((command.group(1) != null) ? command.group(1) : command.group(2), command.group(3));
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Loads a CSV file with a header row naming the columns into a table. The
+	 * file uses the <code>-d</code> and <code>-Q</code> delimiter and quote,
+	 * as the CSV output does.
+	 *
+	 * Snowflake stages the file and loads it itself. Otherwise the file is
+	 * loaded in parallel over <code>-N</code> connections of their own, with
+	 * COPY on PostgreSQL, LOAD DATA LOCAL on MySQL, and inserts batched
+	 * <code>-n</code> rows at a time on anything else. In a script with commit
+	 * groups, the open group is committed first.
+	 */
+	protected void importCsv(String file, String table) throws SQLException, IOException {
+		CsvImport csv = new CsvImport(file, options.csvDelimiter, options.csvQuote, console, !quiet);
+		ArrayList<Connection> pool = new ArrayList<Connection>();
+		try {
+			String[] header = csv.open();
+			int[] types = new int[header.length];
+			String[] columns = InsertLoader.quoteColumns(connection, table, header, types);
+			if (commitGroup != null) {
+				// the loading connections can't see the open group, and would
+				// wait on any lock it holds on the table
+				commitGroup.executed(1);
+				commitGroup.commit();
+			}
+			long start = System.nanoTime();
+			long rows;
+			if (fetchProfile.getName().equals("snowflake")) {
+				SnowflakeStageLoad load = new SnowflakeStageLoad(connection, table, columns, options.csvDelimiter,
+						options.csvQuote);
+				rows = load.load(file, importConnections);
+			} else {
+				CsvImport.Loader loader = nativeLoader(table, columns, types, csv.getLineEnding());
+				if (fetchProfile.turnedOffAutoCommit()) {
+					connection.commit();
+				}
+				for (int i = 0; i < importConnections; i++) {
+					pool.add(DriverManager.getConnection(fetchProfile.prepareUrl(url, true), username, password));
+				}
+				rows = csv.run(pool, loader);
+			}
+			double seconds = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+			if (!quiet) {
+				console.println(String.format("Imported %,d rows into %s in %.1f s (%,.0f rows/s)", rows, table,
+						seconds, rows / seconds));
+			}
+			if (csv.getFailedChunks() > 0) {
+				throw new SQLException(csv.getFailedChunks() + " of " + csv.getChunks() + " chunk(s) of " + file
+						+ " failed to import");
+			}
+		} finally {
+			csv.close();
+			for (Connection worker : pool) {
+				try {
+					worker.close();
+				} catch (SQLException e) {
+					// oh well
+				}
+			}
+		}
+	}
+
+	/**
+	 * Picks the driver's native bulk load if it can take the file, else
+	 * batched inserts.
+	 */
+	private CsvImport.Loader nativeLoader(String table, String[] columns, int[] types, String lineEnding)
+			throws SQLException {
+		char delimiter = options.csvDelimiter;
+		char quote = options.csvQuote;
+		if (fetchProfile.getName().equals("postgresql") && CopyLoader.canLoad(types)) {
+			return new CopyLoader(table, columns, delimiter, quote);
+		}
+		if (fetchProfile.getName().equals("mysql")) {
+			if (LoadDataLoader.isEnabled(connection)) {
+				return new LoadDataLoader(table, columns, types, delimiter, quote, lineEnding);
+			}
+			printLineWarning("local_infile is off on the server, importing with inserts");
+		}
+		return new InsertLoader(table, columns, types, delimiter, quote, Math.max(1, batchSize));
+	}
+
+	/**
+	 * Writes out a session workbook that is otherwise only written on exit.
+	 */
+	protected void checkpoint() {
+		if (!(writer instanceof XlsResultWriter)) {
+			printLineWarning("checkpoint only applies to xls and xlsx output");
+			return;
+		}
+		try {
+			((XlsResultWriter) writer).checkpoint();
+		} catch (IOException e) {
+			printLineError(e.getMessage());
+		}
+	}
+
+	protected void execute(String line) throws SQLException, IOException {
+		currentStatement = line;
+		try {
+			boolean hasResults = this.statement.execute(line);
+			printResults();
+			// autocommit was only turned off to get a cursor
+			if (fetchProfile.turnedOffAutoCommit()) {
+				connection.commit();
+			}
+		} catch (SQLException e) {
+			if (fetchProfile.turnedOffAutoCommit()) {
+				try {
+					connection.rollback();
+				} catch (SQLException x) {
+					// report the original error
+				}
+			}
+			throw e;
+		}
+	}
+
+	protected void printResults() throws SQLException, IOException {
+		writer.beginPage();
+		int resultIndex = 0;
 		while (true) {
 			ResultSet results = this.statement.getResultSet();
 			if (results != null) {
 				exhumeWarnings(results);
 
-				resultSetNum++;
+				resultIndex++;
 
 				ResultSetMetaData meta = results.getMetaData();
 				int cols = meta.getColumnCount();
+				fetchTuner = fetchProfile.newTuner(this.statement, results);
 
 				String[] names = new String[cols];
 				int[] types = new int[cols];
+				codecs = new ColumnCodec[cols];
+				precisions = new int[cols];
+				scales = new int[cols];
 				for (int i = 0; i < cols; i++) {
 					names[i] = meta.getColumnName(i + 1);
 					types[i] = meta.getColumnType(i + 1);
-					System.out.println(i + " type " + types[i]);
-				}
-
-				int[] widths = new int[cols];
-				int maxRows = 50000;
-				ArrayList<String[]> rows = new ArrayList<String[]>(maxRows);
-				while (results != null) {
-					// init widths
-					for (int i = 0; i < cols; i++) {
-						widths[i] = names[i].length();
-					}
-
-					// get values
-					for (int row = 0; row < maxRows; row++) {
-						if (!results.next()) {
-							results.close();
-							results = null;
-							break;
-						}
-						String[] values = new String[cols];
-						for (int i = 0; i < cols; i++) {
-							values[i] = results.getString(i + 1);
-							if (values[i] == null) {
-								values[i] = "<NULL>";
-							}
-							widths[i] = Math.max(widths[i], values[i].length());
+					codecs[i] = ColumnCodec.forColumn(meta, i + 1);
+					if (codecs[i] == ColumnCodec.DECIMAL) {
+						if (types[i] == Types.BIGINT) {
+							// unsigned, so the values are decimals
+							types[i] = Types.DECIMAL;
+							precisions[i] = 20;
+						} else {
+							precisions[i] = meta.getPrecision(i + 1);
+							scales[i] = meta.getScale(i + 1);
 						}
-						rows.add(values);
-						exhumeWarnings(results);
 					}
-
-					// print it
-					printHeaders(names, widths);
-					for (String[] values : rows) {
-						printRow(values, widths, types);
+					if (writer.printsDriverText()) {
+						codecs[i] = ColumnCodec.STRING;
 					}
-					printFooter(widths);
 				}
-			} else {
-				if (!showResultsOnly) {
-					output.println();
-					output.println("Updated: " + this.statement.getUpdateCount());
-					output.println();
+
+				if (writer.needsAllRows() || (writer.usesWidths() && (widthSampleRows < 0))) {
+					printBufferedResults(results, names, types);
+				} else {
+					printStreamingResults(results, meta, resultIndex + ":" + currentStatement, names, types,
+							writer.usesWidths() ? widthSampleRows : 0);
 				}
+			} else {
+				writer.writeUpdateCount(this.statement.getUpdateCount());
 			}
 			// Advance and quit if done
 			if ((this.statement.getMoreResults() == false) && (this.statement.getUpdateCount() == -1))
 				break;
 		}
-		printPageFooter();
+		writer.endPage();
 	}
 
-	private void printPageHeader() {
-		if (headings) {
-			switch (outputFormat) {
-			case HTML:
-				output.println("<html><head><title>" + ((title != null) ? title : "")
-						+ "</title><meta http-equiv=\"content-type\" content=\"text/html;charset=UTF-8\"/></head>");
-				if (cssFile != null) {
-					BufferedInputStream in;
-					try {
-						in = new BufferedInputStream(new FileInputStream(new File(cssFile)));
-						BufferedReader reader = new BufferedReader(new InputStreamReader(in));
-						String line = null;
-						while ((line = reader.readLine()) != null) {
-							output.println(line);
-						}
-					} catch (IOException x) {
-						System.err.println(x);
-					}
-				} else {
-					try {
-						InputStream in = this.getClass().getClassLoader().getResourceAsStream(DEFAULT_CSS_FILE);
-						BufferedReader reader = new BufferedReader(new InputStreamReader(in));
-						String line = null;
-						while ((line = reader.readLine()) != null) {
-							output.println(line);
-						}
-					} catch (IOException x) {
-						System.err.println(x);
-					}
-				}
-				output.println("<body>");
-				if (title != null) {
-					output.println("<table width=\"100%\">");
-					output.println("<tr><th class=\"title\">" + title + "</th>");
-					output.println("</table>");
-				}
-				break;
-			case CSV:
-				if (title != null) {
-					output.println(title);
-				}
-				break;
-			case XLS:
-				if (title != null) {
-					// TODO: What do we do here?
-				}
-				break;
-			}
+	/**
+	 * Reads the whole result set into the off-heap row buffer before printing
+	 * anything, so that columns can be sized from every row.
+	 */
+	protected void printBufferedResults(ResultSet results, String[] names, int[] types)
+			throws SQLException, IOException {
+		int cols = names.length;
+		int[] widths = new int[cols];
+		for (int i = 0; i < cols; i++) {
+			widths[i] = names[i].length();
 		}
-	}
+		if (rowBuffer == null) {
+			rowBuffer = new RowBuffer(bufferMemoryMB * 1024L * 1024L);
+		}
+		rowBuffer.reset(cols);
 
-	private void printPageFooter() {
-		if (outputFormat == OutputFormat.HTML) {
-			output.println("</body>");
-			output.println("</html>");
+		Object[] values = new Object[cols];
+		while (nextRow(results)) {
+			fetchRow(results, values);
+			for (int i = 0; i < cols; i++) {
+				widths[i] = Math.max(widths[i], width(values[i]));
+			}
+			rowBuffer.add(values);
+			exhumeWarnings(results);
+		}
+		results.close();
+
+		writer.beginResult(names, types, precisions, scales, widths);
+		Object[][] batch = new Object[ROW_BATCH_SIZE][cols];
+		int count = 0;
+		rowBuffer.rewind();
+		while (rowBuffer.next(batch[count])) {
+			if (++count == batch.length) {
+				writer.writeRows(batch, count);
+				count = 0;
+			}
 		}
+		writer.writeRows(batch, count);
+		writer.endResult();
 	}
 
-	protected void printHeaders(String[] values, int[] widths) {
-		switch (outputFormat) {
-		case HTML:
-			output.println("<table width=\"100%\">");
-			output.print("<tr>");
-			if (headings) {
-				for (int i = 0; i < values.length; i++) {
-					output.print("<th align=\"center\">");
-					output.print(values[i]);
-					output.print("</th>");
-				}
-				output.println("</tr>");
+	/**
+	 * Streams a result set. Column widths are sized from the first
+	 * <code>sampleRows</code> rows, the driver's display size and the widths
+	 * seen the last time the same statement ran, so the first rows are printed
+	 * right away and memory stays flat however many rows follow. Values wider
+	 * than their column after the sample are printed as is.
+	 */
+	protected void printStreamingResults(ResultSet results, ResultSetMetaData meta, String key, String[] names,
+			int[] types, int sampleRows) throws SQLException, IOException {
+		int cols = names.length;
+		int[] widths = new int[cols];
+		int[] remembered = rememberedWidths.get(key);
+		if ((remembered != null) && (remembered.length != cols)) {
+			remembered = null;
+		}
+		for (int i = 0; i < cols; i++) {
+			widths[i] = names[i].length();
+			int hint = meta.getColumnDisplaySize(i + 1);
+			if ((hint > 0) && (hint <= MAX_DISPLAY_SIZE_HINT)) {
+				widths[i] = Math.max(widths[i], hint);
 			}
-			break;
-		case CSV:
-			if (headings) {
-				for (int i = 0; i < values.length; i++) {
-					if (i > 0) {
-						output.print(",");
-					}
-					output.print(values[i]);
-				}
+			if (remembered != null) {
+				widths[i] = Math.max(widths[i], remembered[i]);
 			}
-			break;
-		case TEXT:
-			if (headings) {
-				printLine(widths);
-				output.print("|");
-				for (int i = 0; i < values.length; i++) {
-					output.print(" ");
-					output.print(values[i]);
-					for (int w = values[i].length(); w < widths[i]; w++) {
-						output.print(" ");
-					}
-					output.print(" |");
-				}
-				output.println();
-				printLine(widths);
+		}
+
+		// sample the leading rows to size the columns
+		ArrayList<Object[]> sample = new ArrayList<Object[]>(Math.min(sampleRows, 1024));
+		boolean more = true;
+		while (sample.size() < sampleRows) {
+			if (!nextRow(results)) {
+				more = false;
+				break;
 			}
-			break;
-		case XLS:
-			// Start a new sheet, or pick the correct sheet
-			boolean newSheet = true;
-			// There is a map entry
-			String myTitle = title;
-
-			int mySheet = tabNames.indexOf(currentSheetName);
-			if (mySheet == -1) {
-				mySheet = resultSetNum - 1;
-			}
-
-			if (mySheet < tabTitles.size()) {
-				myTitle = tabTitles.get(mySheet);
-			}
-			if (mySheet < tabNames.size()) {
-				if (workbook.getNumberOfSheets() + 1 < mySheet) {
-					// Create all intermediate sheets
-					for (int i = workbook.getNumberOfSheets() + 1; i < mySheet; i++) {
-						String name = tabNames.get(i);
-						System.out.println("Looking for " + name);
-						currentSheet = workbook.getSheet(name);
-						if (currentSheet == null) {
-							System.out.println("Creating " + name);
-							currentSheet = workbook.createSheet(name);
-							String title = null;
-							if (i < tabTitles.size()) {
-								title = tabTitles.get(i);
-							}
-							if (title != null) {
-								HSSFRow row = currentSheet.createRow(0);
-								setCellWithFormatting(row, 0, title);
-							}
-						}
-					}
-				}
+			Object[] values = new Object[cols];
+			fetchRow(results, values);
+			for (int i = 0; i < cols; i++) {
+				widths[i] = Math.max(widths[i], width(values[i]));
+			}
+			sample.add(values);
+			exhumeWarnings(results);
+		}
 
-				String name = tabNames.get(mySheet);
-				currentSheet = workbook.getSheet(name);
-				if (currentSheet == null) {
-					currentSheet = workbook.createSheet(name);
-				} else {
-					newSheet = false;
-				}
-			} else {
-				currentSheet = workbook.createSheet();
-			}
-
-			if ((!append || incrementTab) && newSheet) {
-				if (myTitle != null) {
-					// Add a row
-					HSSFRow row = currentSheet.createRow(0);
-					// HSSFCell cell = row.createCell(0);
-					// cell.setCellValue(new HSSFRichTextString(myTitle));
-					// cell.setCellStyle(headerCellStyle);
-
-					setCellWithFormatting(row, 0, myTitle);
-					//
-					// currentSheet.addMergedRegion(new CellRangeAddress(0, //
-					// first
-					// // row
-					// // (0-based)
-					// 0, // last row (0-based)
-					// 0, // first column (0-based)
-					// values.length - 1)); // last column (0-based)
-					// create the next row
-					// currentSheet.createRow(currentSheet.getLastRowNum());
-				}
-				if (headings) {
-					// Add a row
-					HSSFRow row = currentSheet.createRow(currentSheet.getLastRowNum() + 1);
-					for (int i = 0; i < values.length; i++) {
-						row.createCell(i).setCellValue(new HSSFRichTextString(values[i]));
+		writer.beginResult(names, types, precisions, scales, widths);
+		writer.writeRows(sample.toArray(new Object[sample.size()][]), sample.size());
+		sample = null;
+		if ((writer instanceof StreamResultWriter) && (options.outputFile == null) && (System.console() != null)) {
+			// show the first rows now rather than when the buffer fills
+			((StreamResultWriter) writer).flush();
+		}
+
+		// stream the rest, remembering anything wider for the next run
+		int[] seen = writer.usesWidths() ? widths.clone() : null;
+		if (more && (pipelined || (formatThreads > 1))) {
+			printPipelinedRows(results, cols, seen);
+		} else if (more) {
+			Object[][] batch = new Object[ROW_BATCH_SIZE][cols];
+			int count = 0;
+			while (nextRow(results)) {
+				Object[] values = batch[count];
+				fetchRow(results, values);
+				if (seen != null) {
+					for (int i = 0; i < cols; i++) {
+						seen[i] = Math.max(seen[i], width(values[i]));
 					}
 				}
+				exhumeWarnings(results);
+				if (++count == batch.length) {
+					writer.writeRows(batch, count);
+					count = 0;
+				}
 			}
-			break;
+			writer.writeRows(batch, count);
+		}
+		results.close();
+		writer.endResult();
+		if (seen != null) {
+			rememberedWidths.put(key, seen);
 		}
 	}
 
-	protected void printRow(String[] values, int[] widths, int[] types) {
-		switch (outputFormat) {
-		case HTML:
-			output.print("<tr>");
-			for (int i = 0; i < values.length; i++) {
-				output.print("<td align=\"center\">");
-				output.print(values[i]);
-				output.print("</td>");
-			}
-			output.println("</tr>");
-			break;
-		case CSV:
-			for (int i = 0; i < values.length; i++) {
-				if (i > 0) {
-					output.print(",");
+	/**
+	 * Prints the remaining rows while a background thread fetches ahead, so
+	 * the time spent waiting on the database overlaps with formatting and
+	 * writing instead of adding to it. Widths are tracked in
+	 * <code>seen</code> unless it is null.
+	 */
+	protected void printPipelinedRows(final ResultSet results, int cols, int[] seen)
+			throws SQLException, IOException {
+		RowPipeline pipeline = new RowPipeline(new RowPipeline.RowSource() {
+			public boolean next(Object[] values) throws SQLException {
+				if (!nextRow(results)) {
+					return false;
 				}
-				output.print(values[i]);
+				fetchRow(results, values);
+				// stdout may be taking rows from the other thread
+				exhumeWarnings(results, System.err);
+				return true;
 			}
-			output.println();
-			break;
-		case TEXT:
-			output.print("|");
-			for (int i = 0; i < values.length; i++) {
-				output.print(" ");
-				output.print(values[i]);
-				for (int w = values[i].length(); w < widths[i]; w++) {
-					output.print(" ");
-				}
-				output.print(" |");
+		}, cols, ROW_BATCH_SIZE, Math.max(PIPELINE_DEPTH, formatThreads * 2 + 2));
+		pipeline.start();
+		try {
+			if ((formatThreads > 1) && (writer instanceof StreamResultWriter)) {
+				printParallelRows(pipeline, (StreamResultWriter) writer, seen);
+				return;
 			}
-			output.println();
-			break;
-		case XLS:
-			// Add a row
-			HSSFRow row = currentSheet.createRow(currentSheet.getLastRowNum() + 1);
-			for (int i = 0; i < values.length; i++) {
-				if (!values[i].equals("<NULL>")) {
-					// if (values[i].matches("^((-|\\+)?[0-9]+(\\.[0-9]+)?)$"))
-					// {
-					if ((types[i] == Types.BIGINT) || (types[i] == Types.DECIMAL) || (types[i] == Types.DOUBLE)
-							|| (types[i] == Types.FLOAT) || (types[i] == Types.INTEGER) || (types[i] == Types.NUMERIC)
-							|| (types[i] == Types.REAL) || (types[i] == Types.TINYINT)) {
-
-						HSSFCell cell = row.createCell(i);
-						cell.setCellValue(Double.parseDouble(values[i]));
-						cell.setCellType(HSSFCell.CELL_TYPE_NUMERIC);
-
-						if ((types[i] == Types.DECIMAL) || (types[i] == Types.DOUBLE) || (types[i] == Types.FLOAT)
-								|| (types[i] == Types.NUMERIC) || (types[i] == Types.REAL)) {
-							cell.setCellStyle(floatingCellStyle);
-						} else {
-							cell.setCellStyle(integerCellStyle);
-						}
-					} else {
-						if (values[i].startsWith("{")) {
-							setCellWithFormatting(row, i, values[i]);
-						} else {
-							HSSFCell cell = row.createCell(i);
-							cell.setCellValue(values[i]);
-							cell.setCellType(HSSFCell.CELL_TYPE_STRING);
-							cell.setCellStyle(textCellStyle);
-						}
-					}
-				}
+			RowPipeline.Batch batch;
+			while ((batch = pipeline.take()) != null) {
+				trackWidths(batch, seen);
+				writer.writeRows(batch.rows, batch.count);
+				pipeline.release(batch);
 			}
-			break;
+		} catch (IOException e) {
+			pipeline.cancel();
+			throw e;
+		} catch (RuntimeException e) {
+			pipeline.cancel();
+			throw e;
 		}
 	}
 
-	private void setCellWithFormatting(HSSFRow row, int column, String value) {
-		int index = 0;
-		boolean bold = false;
-		boolean underline = false;
-		boolean italic = false;
-		boolean center = false;
-		int heading = 5; // Default "heading5" == 10pt which
-		// is normal
-
-		boolean mergeSpec = false;
-		int mergeCells = 0;
-		while ((++index < value.length()) && (value.charAt(index) != '}')) {
-			switch (value.charAt(index)) {
-			case 'u':
-			case 'U':
-				underline = true;
-				break;
-			case 'b':
-			case 'B':
-				bold = true;
-				break;
-			case 'i':
-			case 'I':
-				italic = true;
-				break;
-			case 'c':
-			case 'C':
-				center = true;
-				break;
-			case '>': // Merge columns
-				mergeSpec = true;
+	/**
+	 * Formats whole batches on the fork-join pool, each into its own byte
+	 * buffer, and writes the buffers in the order the batches were fetched,
+	 * so the output is byte for byte what a single thread would print.
+	 */
+	private void printParallelRows(RowPipeline pipeline, final StreamResultWriter writer, int[] seen)
+			throws SQLException, IOException {
+		if (formatPool == null) {
+			formatPool = new ForkJoinPool(formatThreads);
+		}
+		ArrayDeque<RowPipeline.Batch> batches = new ArrayDeque<RowPipeline.Batch>();
+		ArrayDeque<ForkJoinTask<byte[]>> rendered = new ArrayDeque<ForkJoinTask<byte[]>>();
+		while (true) {
+			RowPipeline.Batch batch;
+			try {
+				batch = pipeline.take();
+			} catch (SQLException e) {
+				// print the rows fetched before the error
+				while (!rendered.isEmpty()) {
+					writeRendered(pipeline, writer, batches.poll(), rendered.poll(), seen);
+				}
+				throw e;
+			}
+			if (batch == null) {
 				break;
-			default:
-				char c = value.charAt(index);
-				if (!mergeSpec) {
-					if ((c >= '1') && (c <= '4')) {
-						heading = c - '0';
+			}
+			final RowPipeline.Batch rows = batch;
+			rendered.add(formatPool.submit(new RecursiveTask<byte[]>() {
+				@Override
+				protected byte[] compute() {
+					ChannelOutput out = ChannelOutput.inMemory(rows.count * 64);
+					try {
+						for (int r = 0; r < rows.count; r++) {
+							writer.formatRow(out, rows.rows[r]);
+						}
+					} catch (IOException e) {
+						// can't happen, the output only grows in memory
+						throw new IllegalStateException(e);
 					}
-				} else {
-					mergeCells = c - '0';
+					return out.toByteArray();
 				}
-				break;
-
+			}));
+			batches.add(batch);
+			if (rendered.size() >= formatThreads * 2) {
+				writeRendered(pipeline, writer, batches.poll(), rendered.poll(), seen);
 			}
 		}
-		if ((index + 1) < value.length()) {
-			value = value.substring(index + 1);
-		} else {
-			value = "";
+		while (!rendered.isEmpty()) {
+			writeRendered(pipeline, writer, batches.poll(), rendered.poll(), seen);
 		}
+	}
 
-		String key = ((heading > 0) ? String.valueOf((char) ('0' + heading)) : "") + (bold ? "B" : "")
-				+ (italic ? "I" : "") + (underline ? "U" : "");
-
-		HSSFCellStyle style = cellStyles.get(key);
-		if (style == null) {
-			// Create it
-			style = workbook.createCellStyle();
-			HSSFFont font = workbook.createFont();
-
-			if (bold) {
-				font.setBoldweight(HSSFFont.BOLDWEIGHT_BOLD);
-			}
-			if (underline) {
-				font.setUnderline(HSSFFont.U_SINGLE);
-			}
-			font.setItalic(italic);
-			font.setFontHeightInPoints((short) (20 - 2 * heading));
+	private void writeRendered(RowPipeline pipeline, StreamResultWriter writer, RowPipeline.Batch batch,
+			ForkJoinTask<byte[]> task, int[] seen) throws IOException {
+		byte[] bytes = task.join();
+		trackWidths(batch, seen);
+		writer.write(bytes, 0, bytes.length, batch.count);
+		pipeline.release(batch);
+	}
 
-			style.setFont(font);
-			if (center) {
-				style.setAlignment(HSSFCellStyle.ALIGN_CENTER);
+	private static void trackWidths(RowPipeline.Batch batch, int[] seen) {
+		if (seen == null) {
+			return;
+		}
+		for (int r = 0; r < batch.count; r++) {
+			Object[] values = batch.rows[r];
+			for (int i = 0; i < values.length; i++) {
+				seen[i] = Math.max(seen[i], width(values[i]));
 			}
-			cellStyles.put(key, style);
 		}
+	}
 
-		HSSFCell cell = row.createCell(column);
-		cell.setCellValue(value);
-		cell.setCellStyle(style);
-		cell.setCellType(HSSFCell.CELL_TYPE_STRING);
-		if (mergeSpec) {
-			currentSheet.addMergedRegion(new CellRangeAddress(row.getRowNum(), row.getRowNum(), cell.getColumnIndex(),
-					cell.getColumnIndex() + mergeCells));
-		}
+	private static int width(Object value) {
+		return (value != null) ? ColumnCodec.textLength(value) : ResultWriter.NULL_TEXT.length();
 	}
 
-	protected void printLine(int[] widths) {
-		if (outputFormat == OutputFormat.TEXT) {
-			output.print("-");
-			for (int i = 0; i < widths.length; i++) {
-				for (int w = -3; w < widths[i]; w++) {
-					output.print("-");
-				}
-			}
-			output.println();
-		}
+	protected boolean nextRow(ResultSet results) throws SQLException {
+		return (fetchTuner != null) ? fetchTuner.next() : results.next();
 	}
 
-	protected void printFooter(int[] widths) {
-		switch (outputFormat) {
-		case HTML:
-			output.println("</table>");
-			output.println();
-			break;
-		case TEXT:
-			output.print("-");
-			for (int i = 0; i < widths.length; i++) {
-				for (int w = -3; w < widths[i]; w++) {
-					output.print("-");
-				}
-			}
-			output.println();
-			break;
-		case XLS:
-			for (int i = 0; i < widths.length; i++) {
-				currentSheet.autoSizeColumn((short) i); // adjust width of the
-				// first column
-			}
+	/**
+	 * Reads the current row with each column's codec, with null for SQL NULL.
+	 */
+	protected void fetchRow(ResultSet results, Object[] values) throws SQLException {
+		for (int i = 0; i < values.length; i++) {
+			values[i] = codecs[i].read(results, i + 1);
+		}
+		if (fetchTuner != null) {
+			fetchTuner.rowFetched(values);
 		}
 	}
 
 	protected void exhumeWarnings(ResultSet results) throws SQLException {
+		exhumeWarnings(results, console);
+	}
+
+	protected void exhumeWarnings(ResultSet results, PrintStream out) throws SQLException {
 		SQLWarning w = results.getWarnings();
 		while (w != null) {
-			printLineWarning(w.toString());
+			out.println("Warning: " + w);
 			w = w.getNextWarning();
 		}
 		results.clearWarnings();
@@ -720,11 +945,75 @@ public class JdbcTool {
 	}
 
 	protected void printLineWarning(String message) {
-		System.out.println("Warning: " + message);
+		console.println("Warning: " + message);
 	}
 
 	protected void printLineError(String message) {
-		System.out.println("Error: " + message);
+		console.println("Error: " + message);
+	}
+
+	/**
+	 * Parses the argument of an option as a positive byte count with an
+	 * optional k, m or g suffix (powers of 1024), and exits with an error if
+	 * it isn't one.
+	 */
+	private static long parseSize(char option, String size) {
+		long unit = 1;
+		switch (Character.toLowerCase(size.isEmpty() ? ' ' : size.charAt(size.length() - 1))) {
+		case 'k':
+			unit = 1024L;
+			break;
+		case 'm':
+			unit = 1024L * 1024;
+			break;
+		case 'g':
+			unit = 1024L * 1024 * 1024;
+			break;
+		}
+		try {
+			long bytes = Long.parseLong((unit > 1) ? size.substring(0, size.length() - 1) : size);
+			if ((bytes > 0) && (bytes <= Long.MAX_VALUE / unit)) {
+				return bytes * unit;
+			}
+		} catch (NumberFormatException e) {
+			// reported below
+		}
+		printError("JdbcTool: -" + option + " takes a size such as 512k, 64m or 2g, not `" + size + "'");
+		System.exit(-1);
+		return 0;
+	}
+
+	/**
+	 * Parses the argument of an option as a whole number of at least
+	 * <code>min</code>, and exits with an error if it isn't one.
+	 */
+	private static int parseCount(char option, String value, int min) {
+		try {
+			int count = Integer.parseInt(value);
+			if (count >= min) {
+				return count;
+			}
+		} catch (NumberFormatException e) {
+			// reported below
+		}
+		printError("JdbcTool: -" + option + " takes a number of at least " + min + ", not `" + value + "'");
+		System.exit(-1);
+		return min;
+	}
+
+	/**
+	 * Parses the argument of an option as a single character, or "tab", and
+	 * exits with an error if it isn't one.
+	 */
+	private static char parseChar(char option, String value) {
+		if (value.equalsIgnoreCase("tab")) {
+			return '\t';
+		}
+		if (value.length() != 1) {
+			printError("JdbcTool: -" + option + " takes a single character or tab, not `" + value + "'");
+			System.exit(-1);
+		}
+		return value.charAt(0);
 	}
 
 	protected static void printError(String message) {
@@ -735,7 +1024,7 @@ public class JdbcTool {
 		String password = null;
 		String user = null;
 
-		Getopt g = new Getopt("JdbcTool", argv, "p:Pu:hf:o:t:s:rqaT:S:i");
+		Getopt g = new Getopt("JdbcTool", argv, "p:Pu:hf:o:t:s:rqaT:S:iw:z:m:lj:d:Q:E:AC:b:R:B:e:F:n:c:I:xN:");
 		int c;
 		String tabs = null;
 		while ((c = g.getopt()) != -1) {
@@ -747,51 +1036,119 @@ public class JdbcTool {
 				quiet = true;
 				break;
 			case 'h':
-				headings = false;
+				options.headings = false;
 				break;
 			case 'f':
 				String temp = g.getOptarg();
-				if (temp.equalsIgnoreCase("xls")) {
-					outputFormat = OutputFormat.XLS;
-				} else if (temp.equalsIgnoreCase("html")) {
-					outputFormat = OutputFormat.HTML;
-				} else if (temp.equalsIgnoreCase("CSV")) {
-					outputFormat = OutputFormat.CSV;
+				writer = ResultWriters.forFormat(temp);
+				if (writer == null) {
+					printError("JdbcTool: unknown output format `" + temp + "'");
+					System.exit(-1);
 				}
 				break;
 			case 'a':
-				append = true;
+				options.append = true;
 				break;
 			case 'o':
-				outputFile = g.getOptarg();
+				options.outputFile = g.getOptarg();
 				break;
 			case 't':
-				title = g.getOptarg();
-				if (!title.startsWith("{")) {
-					title = "{BUC3>6}" + title;
+				options.title = g.getOptarg();
+				if (!options.title.startsWith("{")) {
+					options.title = "{BUC3>6}" + options.title;
 				}
 				break;
 			case 'T':
 				tabs = g.getOptarg();
 				break;
 			case 's':
-				cssFile = g.getOptarg();
+				options.cssFile = g.getOptarg();
 				break;
 			case 'S':
-				currentSheetName = g.getOptarg();
+				options.sheetName = g.getOptarg();
 				break;
 			case 'P':
 				password = promptUser("Enter password");
 				break;
 			case 'r':
-				showResultsOnly = true;
+				options.showResultsOnly = true;
 				break;
 			case 'i':
-				incrementTab = true;
+				options.incrementTab = true;
+				break;
+			case 'A':
+				options.autoSizeColumns = true;
 				break;
 			case 'u':
 				user = g.getOptarg();
 				break;
+			case 'w':
+				// "all" sizes TEXT columns from every row, buffering the result
+				temp = g.getOptarg();
+				widthSampleRows = temp.equalsIgnoreCase("all") ? -1 : parseCount('w', temp, 0);
+				break;
+			case 'z':
+				fixedFetchSize = parseCount('z', g.getOptarg(), 1);
+				break;
+			case 'm':
+				bufferMemoryMB = parseCount('m', g.getOptarg(), 1);
+				break;
+			case 'l':
+				pipelined = true;
+				break;
+			case 'j':
+				formatThreads = parseCount('j', g.getOptarg(), 1);
+				break;
+			case 'd':
+				options.csvDelimiter = parseChar('d', g.getOptarg());
+				break;
+			case 'Q':
+				options.csvQuote = parseChar('Q', g.getOptarg());
+				break;
+			case 'E':
+				temp = g.getOptarg();
+				if (temp.equalsIgnoreCase("crlf")) {
+					options.lineEnding = "\r\n";
+				} else if (temp.equalsIgnoreCase("lf")) {
+					options.lineEnding = "\n";
+				} else {
+					printError("JdbcTool: line ending must be crlf or lf");
+					System.exit(-1);
+				}
+				break;
+			case 'C':
+				options.compression = g.getOptarg();
+				break;
+			case 'b':
+				options.batchRows = parseCount('b', g.getOptarg(), 1);
+				break;
+			case 'e':
+				script = g.getOptarg();
+				break;
+			case 'F':
+				scriptFile = g.getOptarg();
+				break;
+			case 'n':
+				batchSize = parseCount('n', g.getOptarg(), 1);
+				break;
+			case 'c':
+				commitStatements = parseCount('c', g.getOptarg(), 1);
+				break;
+			case 'I':
+				commitSeconds = parseCount('I', g.getOptarg(), 1);
+				break;
+			case 'x':
+				stopOnError = true;
+				break;
+			case 'N':
+				importConnections = parseCount('N', g.getOptarg(), 1);
+				break;
+			case 'R':
+				options.shardRows = parseCount('R', g.getOptarg(), 1);
+				break;
+			case 'B':
+				options.shardBytes = parseSize('B', g.getOptarg());
+				break;
 			default:
 				printError("JdbcTool: unknown option `" + c + "'");
 				System.exit(-1);
@@ -806,7 +1163,28 @@ public class JdbcTool {
 
 		String url = argv[i];
 
-		if ((outputFormat == OutputFormat.XLS) && (tabs != null) && (tabs.matches("(\\[[^\\[]*\\])*"))) {
+		if (writer == null) {
+			writer = ResultWriters.forFormat("text");
+		}
+		if (((options.shardRows > 0) || (options.shardBytes > 0)) && !(writer instanceof StreamResultWriter)) {
+			printError("Sharded output is only supported for text based formats.");
+			System.exit(-1);
+		}
+		if (((writer instanceof ArrowResultWriter) || (writer instanceof JsonLinesResultWriter)
+				|| ((options.compression != null) && !options.compression.equalsIgnoreCase("none")))
+				&& (options.outputFile == null)) {
+			// stdout carries the data, everything else goes to stderr
+			quiet = true;
+			console = System.err;
+		}
+		options.console = console;
+		if ((options.csvDelimiter >= 0x80) || (options.csvQuote >= 0x80)
+				|| (options.csvDelimiter == options.csvQuote)) {
+			printError("CSV delimiter and quote must be two different ASCII characters.");
+			System.exit(-1);
+		}
+
+		if ((writer instanceof XlsResultWriter) && (tabs != null) && (tabs.matches("(\\[[^\\[]*\\])*"))) {
 			// tab-names are specified
 			// Correct format for tab names
 			tabs = tabs.substring(1, tabs.length() - 1);
@@ -815,22 +1193,22 @@ public class JdbcTool {
 				// Found a tab... are the query's specified?
 				StringTokenizer t2 = new StringTokenizer(t.nextToken(), "|");
 				String name = t2.nextToken();
-				tabNames.add(name); // Name
+				options.tabNames.add(name); // Name
 				if (t2.hasMoreTokens()) {
 					String title = t2.nextToken();
 					if (title.startsWith("{")) {
-						tabTitles.add(title);
+						options.tabTitles.add(title);
 					} else {
-						tabTitles.add("{BUC3>6}" + title);
+						options.tabTitles.add("{BUC3>6}" + title);
 					}
 				} else {
-					tabTitles.add("{BUC3>6}" + name);
+					options.tabTitles.add("{BUC3>6}" + name);
 				}
 			}
-			for (String s : tabNames) {
+			for (String s : options.tabNames) {
 				System.err.println("Tab: " + s);
 			}
-			for (String s : tabTitles) {
+			for (String s : options.tabTitles) {
 				System.err.println("Tab Title: " + s);
 			}
 		}
@@ -857,6 +1235,10 @@ public class JdbcTool {
 			printError("Error closing connection: " + sqle);
 			System.exit(-4);
 		}
+		if (((script != null) || (scriptFile != null)) && (jt.getFailedStatements() > 0)) {
+			printError(jt.getFailedStatements() + " statement(s) failed.");
+			System.exit(-5);
+		}
 
 	}
 
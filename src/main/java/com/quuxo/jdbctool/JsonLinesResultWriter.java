@@ -0,0 +1,137 @@
+/**
+ * JdbcTool: Command line pain relief for JDBC databases.
+ * Copyright (C) 2007, Quuxo Software.
+ * JdbcTool 2.0 - XLS, CSV, TEXT, HTML output and multi-tab features
+ * Copyright 2009-2017 Renny Koshy
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+package com.quuxo.jdbctool;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+
+/**
+ * Newline delimited JSON, one object per row keyed by column name.
+ *
+ * The keys are escaped once per result set into byte arrays that already
+ * hold the surrounding punctuation, so a row is a run of copies and typed
+ * values: numbers as JSON numbers, NULL as <code>null</code>, timestamps as
+ * ISO-8601 local date-times, and everything else as an escaped string.
+ * Update counts go to the console so that the output stays pure JSON.
+ */
+public class JsonLinesResultWriter extends StreamResultWriter {
+	private static final byte[] NULL = { 'n', 'u', 'l', 'l' };
+	// "{"name":" for the first column, ","name":" for the rest
+	private byte[][] keys;
+	protected String lineEnding;
+
+	public String getFormat() {
+		return "jsonl";
+	}
+
+	@Override
+	public boolean printsDriverText() {
+		// numbers stay JSON numbers
+		return false;
+	}
+
+	@Override
+	public void open(OutputOptions options) throws IOException {
+		super.open(options);
+		lineEnding = (options.lineEnding != null) ? options.lineEnding : "\n";
+	}
+
+	@Override
+	public void beginResult(String[] names, int[] types, int[] precisions, int[] scales, int[] widths)
+			throws IOException {
+		super.beginResult(names, types, precisions, scales, widths);
+		keys = new byte[names.length][];
+		for (int i = 0; i < names.length; i++) {
+			ChannelOutput key = ChannelOutput.inMemory(names[i].length() + 8);
+			key.print((i == 0) ? "{\"" : ",\"");
+			key.printJson(names[i]);
+			key.print("\":");
+			keys[i] = key.toByteArray();
+		}
+	}
+
+	@Override
+	public void formatRow(ChannelOutput out, Object[] values) throws IOException {
+		formatObject(out, values);
+		out.print(lineEnding);
+	}
+
+	/**
+	 * Prints the object for one row, without the line ending.
+	 */
+	protected void formatObject(ChannelOutput out, Object[] values) throws IOException {
+		for (int i = 0; i < values.length; i++) {
+			out.write(keys[i], 0, keys[i].length);
+			Object value = values[i];
+			if (value == null) {
+				out.write(NULL, 0, NULL.length);
+			} else if (value instanceof String) {
+				printString(out, (String) value);
+			} else if (value instanceof Long) {
+				out.print(((Long) value).longValue());
+			} else if (value instanceof BigDecimal) {
+				out.print(((BigDecimal) value).toPlainString());
+			} else if ((value instanceof Double) || (value instanceof Float)) {
+				double d = ((Number) value).doubleValue();
+				if (Double.isNaN(d) || Double.isInfinite(d)) {
+					// not a JSON number
+					printString(out, value.toString());
+				} else {
+					out.print(value.toString());
+				}
+			} else if (value instanceof Timestamp) {
+				printString(out, isoTimestamp((Timestamp) value));
+			} else {
+				printString(out, ColumnCodec.toText(value));
+			}
+		}
+		out.print((values.length == 0) ? "{}" : "}");
+	}
+
+	/**
+	 * The ISO-8601 form of a timestamp, such as 2017-07-14T02:40:01 or
+	 * 2017-07-14T02:40:01.25, rather than the SQL form that
+	 * <code>toString</code> gives.
+	 */
+	static String isoTimestamp(Timestamp value) {
+		String text = value.toString();
+		if (text.endsWith(".0")) {
+			text = text.substring(0, text.length() - 2);
+		}
+		return text.replace(' ', 'T');
+	}
+
+	private static void printString(ChannelOutput out, String value) throws IOException {
+		out.print('"');
+		out.printJson(value);
+		out.print('"');
+	}
+
+	@Override
+	public void writeUpdateCount(int count) throws IOException {
+		if (!options.showResultsOnly) {
+			options.console.println("Updated: " + count);
+		}
+	}
+}
@@ -0,0 +1,99 @@
+/**
+ * JdbcTool: Command line pain relief for JDBC databases.
+ * Copyright (C) 2007, Quuxo Software.
+ * JdbcTool 2.0 - XLS, CSV, TEXT, HTML output and multi-tab features
+ * Copyright 2009-2017 Renny Koshy
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+package com.quuxo.jdbctool;
+
+import java.io.IOException;
+
+/**
+ * One JSON array of row objects for the whole output, formatted like
+ * <code>jsonl</code> with one object per line. The rows of every result set
+ * go into the same array, each object keyed by its own result's columns, so
+ * a script with several queries still writes a single JSON document. Each
+ * shard is a document of its own.
+ *
+ * Rows are formatted without knowing which one comes first, so each starts
+ * with the comma and line break that separate it from the one before, and
+ * that separator is left out for the first row as the rows are written.
+ */
+public class JsonResultWriter extends JsonLinesResultWriter {
+	// whether the array is open in the current output, and still empty
+	private boolean started = false;
+	private boolean first;
+
+	@Override
+	public String getFormat() {
+		return "json";
+	}
+
+	@Override
+	public void beginResult(String[] names, int[] types, int[] precisions, int[] scales, int[] widths)
+			throws IOException {
+		super.beginResult(names, types, precisions, scales, widths);
+		if (!started) {
+			output.print('[');
+			output.print(lineEnding);
+			started = true;
+			first = true;
+		}
+	}
+
+	@Override
+	public void formatRow(ChannelOutput out, Object[] values) throws IOException {
+		out.print(',');
+		out.print(lineEnding);
+		formatObject(out, values);
+	}
+
+	@Override
+	protected void writeRow(Object[] values) throws IOException {
+		if (first) {
+			first = false;
+			formatObject(output, values);
+		} else {
+			formatRow(output, values);
+		}
+	}
+
+	@Override
+	protected void writeFormatted(byte[] bytes, int offset, int length) throws IOException {
+		if (first && (length > 0)) {
+			first = false;
+			int separator = 1 + lineEnding.length();
+			super.writeFormatted(bytes, offset + separator, length - separator);
+		} else {
+			super.writeFormatted(bytes, offset, length);
+		}
+	}
+
+	@Override
+	protected void endOutput() throws IOException {
+		if (!started) {
+			output.print('[');
+		} else if (!first) {
+			output.print(lineEnding);
+		}
+		output.print(']');
+		output.print(lineEnding);
+		started = false;
+	}
+}
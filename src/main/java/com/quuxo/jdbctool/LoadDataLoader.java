@@ -0,0 +1,111 @@
+/**
+ * JdbcTool: Command line pain relief for JDBC databases.
+ * Copyright (C) 2007, Quuxo Software.
+ * JdbcTool 2.0 - XLS, CSV, TEXT, HTML output and multi-tab features
+ * Copyright 2009-2017 Renny Koshy
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+package com.quuxo.jdbctool;
+
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.Statement;
+import java.sql.Types;
+
+/**
+ * Loads CSV records into MySQL with <code>LOAD DATA LOCAL INFILE</code>, with
+ * the driver reading the chunk from a stream instead of a local file.
+ *
+ * LOAD DATA has no way to tell NULL from an empty string in a CSV file, so
+ * every empty field, quoted or not, is loaded as NULL. Binary columns are
+ * unhexed on the server.
+ *
+ * LOAD DATA LOCAL makes warnings of bad values and skips duplicate keys
+ * rather than failing, so a chunk with any warning, or that loaded fewer rows
+ * than it has records, is failed here instead.
+ */
+class LoadDataLoader implements CsvImport.Loader {
+	private final String sql;
+	private final char quote;
+
+	LoadDataLoader(String table, String[] columns, int[] types, char delimiter, char quote, String lineEnding) {
+		StringBuilder sql = new StringBuilder("LOAD DATA LOCAL INFILE 'chunk.csv' INTO TABLE ").append(table)
+				.append(" CHARACTER SET utf8mb4 FIELDS TERMINATED BY ").append(literal(delimiter))
+				.append(" OPTIONALLY ENCLOSED BY ").append(literal(quote)).append(" ESCAPED BY ''")
+				.append(" LINES TERMINATED BY '").append(lineEnding.equals("\r\n") ? "\\r\\n" : "\\n").append("' (");
+		StringBuilder set = new StringBuilder(" SET ");
+		for (int i = 0; i < columns.length; i++) {
+			if (i > 0) {
+				sql.append(", ");
+				set.append(", ");
+			}
+			sql.append("@c").append(i);
+			set.append(columns[i]).append(" = ");
+			if ((types[i] == Types.BINARY) || (types[i] == Types.VARBINARY) || (types[i] == Types.LONGVARBINARY)
+					|| (types[i] == Types.BLOB)) {
+				set.append("UNHEX(NULLIF(@c").append(i).append(", ''))");
+			} else {
+				set.append("NULLIF(@c").append(i).append(", '')");
+			}
+		}
+		this.sql = sql.append(')').append(set).toString();
+		this.quote = quote;
+	}
+
+	/**
+	 * True if the server accepts LOAD DATA LOCAL.
+	 */
+	static boolean isEnabled(Connection connection) throws SQLException {
+		Statement statement = connection.createStatement();
+		try {
+			ResultSet results = statement.executeQuery("SELECT @@local_infile");
+			boolean enabled = results.next() && results.getBoolean(1);
+			results.close();
+			return enabled;
+		} finally {
+			statement.close();
+		}
+	}
+
+	private static String literal(char c) {
+		if ((c == '\'') || (c == '\\')) {
+			return "'\\" + c + "'";
+		}
+		return (c == '\t') ? "'\\t'" : "'" + c + "'";
+	}
+
+	public long load(Connection connection, ByteBuffer chunk) throws SQLException {
+		Statement statement = connection.createStatement();
+		try {
+			long records = CsvImport.countRecords(chunk, quote);
+			statement.unwrap(com.mysql.jdbc.Statement.class).setLocalInfileInputStream(CsvImport.stream(chunk));
+			int loaded = statement.executeUpdate(sql);
+			SQLWarning warning = statement.getWarnings();
+			if ((loaded != records) || (warning != null)) {
+				throw new SQLException("LOAD DATA loaded " + loaded + " of " + records + " rows"
+						+ ((warning != null) ? ", the first warning: " + warning.getMessage() : ""));
+			}
+			return loaded;
+		} finally {
+			statement.close();
+		}
+	}
+}
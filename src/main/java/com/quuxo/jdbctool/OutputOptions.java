@@ -0,0 +1,58 @@
+/**
+ * JdbcTool: Command line pain relief for JDBC databases.
+ * Copyright (C) 2007, Quuxo Software.
+ * JdbcTool 2.0 - XLS, CSV, TEXT, HTML output and multi-tab features
+ * Copyright 2009-2017 Renny Koshy
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+package com.quuxo.jdbctool;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Output settings from the command line, shared with the result writers.
+ */
+public class OutputOptions {
+	public String outputFile = null;
+	public String title = null;
+	public String cssFile = null;
+	public boolean headings = true;
+	public boolean append = false;
+	public boolean showResultsOnly = false;
+	public List<String> tabNames = new ArrayList<String>();
+	public List<String> tabTitles = new ArrayList<String>();
+	public String sheetName = "";
+	public boolean incrementTab = false;
+	// measure every cell with POI instead of the widths counted while writing
+	public boolean autoSizeColumns = false;
+	public char csvDelimiter = ',';
+	public char csvQuote = '"';
+	// null for the platform line separator
+	public String lineEnding = null;
+	// null for the format's default
+	public String compression = null;
+	// rows per Arrow record batch, 0 for the default
+	public int batchRows = 0;
+	// limits per output shard, 0 for none
+	public long shardRows = 0;
+	public long shardBytes = 0;
+	// where update counts and other messages go, stderr if stdout has data
+	public PrintStream console = System.out;
+}
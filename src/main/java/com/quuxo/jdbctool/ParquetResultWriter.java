@@ -0,0 +1,521 @@
+/**
+ * JdbcTool: Command line pain relief for JDBC databases.
+ * Copyright (C) 2007, Quuxo Software.
+ * JdbcTool 2.0 - XLS, CSV, TEXT, HTML output and multi-tab features
+ * Copyright 2009-2017 Renny Koshy
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+package com.quuxo.jdbctool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.TimeZone;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Apache Parquet files, written without the Hadoop based parquet-mr library.
+ *
+ * Every column is OPTIONAL and PLAIN encoded, with its definition levels as
+ * bit packed runs, in version 1 data pages of about <code>PAGE_SIZE</code>
+ * bytes or values, whichever comes first. Pages are compressed as they fill
+ * up (SNAPPY by default, or GZIP or none with <code>-C</code>) and kept
+ * until the row group, counting a byte per definition level, reaches
+ * <code>ROW_GROUP_SIZE</code>, when each column chunk is written out in turn;
+ * memory use is bounded by one row group however many rows follow. The
+ * Thrift footer with the schema and the row group offsets goes at the end.
+ *
+ * Result sets of the same shape go into the same file. A result set of a
+ * different shape starts a new file, numbered from the name given to
+ * <code>-o</code>.
+ */
+public class ParquetResultWriter implements ResultWriter {
+	static final int PAGE_SIZE = 1024 * 1024;
+	static final long ROW_GROUP_SIZE = 64L * 1024 * 1024;
+	private static final byte[] MAGIC = { 'P', 'A', 'R', '1' };
+	// physical types
+	private static final int INT32 = 1;
+	private static final int INT64 = 2;
+	private static final int FLOAT = 4;
+	private static final int DOUBLE = 5;
+	private static final int BYTE_ARRAY = 6;
+	// converted types
+	private static final int NONE = -1;
+	private static final int UTF8 = 0;
+	private static final int DECIMAL = 5;
+	private static final int DATE = 6;
+	private static final int TIMESTAMP_MICROS = 10;
+	// compression codecs
+	private static final int UNCOMPRESSED = 0;
+	private static final int SNAPPY = 1;
+	private static final int GZIP = 2;
+	// encodings
+	private static final int PLAIN = 0;
+	private static final int RLE = 3;
+	private static final int OPTIONAL = 1;
+	private static final int DATA_PAGE = 0;
+
+	/**
+	 * One column of the current file, buffering the current page and the
+	 * compressed pages of the current row group.
+	 */
+	private static class Column {
+		final String name;
+		final int type;
+		final int convertedType;
+		final int precision;
+		final int scale;
+		final ByteSink values = new ByteSink(64 * 1024);
+		// definition level of each value on the page, 0 for NULL
+		byte[] levels = new byte[1024];
+		int pageValues = 0;
+		final ByteSink chunk = new ByteSink(64 * 1024);
+		long chunkValues = 0;
+		long chunkUncompressed = 0;
+
+		Column(String name, int type, int convertedType, int precision, int scale) {
+			this.name = name;
+			this.type = type;
+			this.convertedType = convertedType;
+			this.precision = precision;
+			this.scale = scale;
+		}
+	}
+
+	/**
+	 * Where a column chunk ended up, for the footer.
+	 */
+	private static class Chunk {
+		final long offset;
+		final long values;
+		final long uncompressed;
+		final long compressed;
+
+		Chunk(long offset, long values, long uncompressed, long compressed) {
+			this.offset = offset;
+			this.values = values;
+			this.uncompressed = uncompressed;
+			this.compressed = compressed;
+		}
+	}
+
+	private static class RowGroup {
+		final Chunk[] chunks;
+		final long rows;
+
+		RowGroup(Chunk[] chunks, long rows) {
+			this.chunks = chunks;
+			this.rows = rows;
+		}
+	}
+
+	private OutputOptions options;
+	private int codec;
+	private final Snappy snappy = new Snappy();
+	private final ByteSink page = new ByteSink(PAGE_SIZE + 64 * 1024);
+	private final ByteSink compressed = new ByteSink(PAGE_SIZE);
+	private final ByteSink header = new ByteSink(64);
+	private TimeZone timeZone;
+	private ChannelOutput output;
+	private long position;
+	private int fileNumber = 0;
+	private String shape;
+	private Column[] columns;
+	private ArrayList<RowGroup> rowGroups = new ArrayList<RowGroup>();
+	private long groupRows;
+	private long groupBytes;
+	private long totalRows;
+
+	public String getFormat() {
+		return "parquet";
+	}
+
+	public boolean needsAllRows() {
+		return false;
+	}
+
+	public boolean usesWidths() {
+		return false;
+	}
+
+	public boolean printsDriverText() {
+		return false;
+	}
+
+	public void open(OutputOptions options) throws IOException {
+		this.options = options;
+		if (options.outputFile == null) {
+			// the console output shares stdout, so the file needs a name
+			throw new IOException("Parquet output needs an output file, use -o");
+		}
+		String name = (options.compression != null) ? options.compression.toLowerCase() : "snappy";
+		if (name.equals("snappy")) {
+			codec = SNAPPY;
+		} else if (name.equals("gzip")) {
+			codec = GZIP;
+		} else if (name.equals("none")) {
+			codec = UNCOMPRESSED;
+		} else {
+			throw new IOException("Parquet compression must be snappy, gzip or none, not " + name);
+		}
+		timeZone = TimeZone.getDefault();
+	}
+
+	public void beginPage() throws IOException {
+	}
+
+	public void beginResult(String[] names, int[] types, int[] precisions, int[] scales, int[] widths)
+			throws IOException {
+		String key = ResultWriters.shape(names, types, precisions, scales);
+		if ((output != null) && key.equals(shape)) {
+			return;
+		}
+		if (output != null) {
+			finishFile();
+		}
+		shape = key;
+		names = uniqueNames(names);
+		columns = new Column[names.length];
+		for (int i = 0; i < names.length; i++) {
+			columns[i] = newColumn(names[i], types[i], precisions[i], scales[i]);
+		}
+		startFile();
+	}
+
+	/**
+	 * The column names with "_2", "_3" and so on added to repeats, as a join
+	 * easily gives two columns called "id" and a schema can't have both.
+	 * Names that differ only in case count as repeats, since many readers
+	 * look columns up without regard to case.
+	 */
+	static String[] uniqueNames(String[] names) {
+		String[] unique = new String[names.length];
+		HashSet<String> seen = new HashSet<String>();
+		for (String name : names) {
+			seen.add(name.toLowerCase());
+		}
+		HashSet<String> used = new HashSet<String>();
+		for (int i = 0; i < names.length; i++) {
+			String name = names[i];
+			if (!used.add(name.toLowerCase())) {
+				for (int n = 2; seen.contains(name.toLowerCase()); n++) {
+					name = names[i] + "_" + n;
+				}
+				used.add(name.toLowerCase());
+			}
+			seen.add(name.toLowerCase());
+			unique[i] = name;
+		}
+		return unique;
+	}
+
+	private static Column newColumn(String name, int sqlType, int precision, int scale) {
+		ColumnCodec codec = ColumnCodec.forType(sqlType);
+		if (codec == ColumnCodec.LONG) {
+			return new Column(name, INT64, NONE, 0, 0);
+		} else if (codec == ColumnCodec.DOUBLE) {
+			return new Column(name, DOUBLE, NONE, 0, 0);
+		} else if (codec == ColumnCodec.FLOAT) {
+			return new Column(name, FLOAT, NONE, 0, 0);
+		} else if (codec == ColumnCodec.DECIMAL) {
+			if (ColumnCodec.isFixedDecimal(precision, scale)) {
+				return new Column(name, BYTE_ARRAY, DECIMAL, precision, scale);
+			}
+			// unconstrained NUMERIC has no fixed scale, keep the exact text
+			return new Column(name, BYTE_ARRAY, UTF8, 0, 0);
+		} else if (codec == ColumnCodec.TIMESTAMP) {
+			return new Column(name, INT64, TIMESTAMP_MICROS, 0, 0);
+		} else if (codec == ColumnCodec.DATE) {
+			return new Column(name, INT32, DATE, 0, 0);
+		} else if (codec == ColumnCodec.BYTES) {
+			return new Column(name, BYTE_ARRAY, NONE, 0, 0);
+		}
+		return new Column(name, BYTE_ARRAY, UTF8, 0, 0);
+	}
+
+	private void startFile() throws IOException {
+		fileNumber++;
+		output = ChannelOutput.toFile(ResultWriters.numberedFile(options.outputFile, fileNumber));
+		output.write(MAGIC, 0, MAGIC.length);
+		position = MAGIC.length;
+		rowGroups.clear();
+		groupRows = 0;
+		groupBytes = 0;
+		totalRows = 0;
+	}
+
+	public void writeRows(Object[][] rows, int count) throws IOException {
+		for (int r = 0; r < count; r++) {
+			Object[] values = rows[r];
+			for (int i = 0; i < columns.length; i++) {
+				add(columns[i], values[i]);
+			}
+			groupRows++;
+			if (groupBytes >= ROW_GROUP_SIZE) {
+				flushRowGroup();
+			}
+		}
+	}
+
+	private void add(Column column, Object value) throws IOException {
+		if (column.pageValues == column.levels.length) {
+			column.levels = Arrays.copyOf(column.levels, column.levels.length * 2);
+		}
+		ByteSink out = column.values;
+		int before = out.size();
+		if (value == null) {
+			column.levels[column.pageValues++] = 0;
+		} else {
+			column.levels[column.pageValues++] = 1;
+			addValue(column, value);
+		}
+		// the definition level is held as a byte until its page is written
+		groupBytes += 1 + out.size() - before;
+		if ((out.size() >= PAGE_SIZE) || (column.pageValues >= PAGE_SIZE)) {
+			flushPage(column);
+		}
+	}
+
+	private void addValue(Column column, Object value) throws IOException {
+		ByteSink out = column.values;
+		switch (column.type) {
+		case INT32:
+			out.putInt(ColumnCodec.epochDay((java.util.Date) value, timeZone));
+			break;
+		case INT64:
+			if (column.convertedType == TIMESTAMP_MICROS) {
+				out.putLong(ColumnCodec.epochMicros((Timestamp) value));
+			} else {
+				out.putLong(((Number) value).longValue());
+			}
+			break;
+		case FLOAT:
+			out.putFloat(((Number) value).floatValue());
+			break;
+		case DOUBLE:
+			out.putDouble(((Number) value).doubleValue());
+			break;
+		default:
+			byte[] bytes;
+			if (column.convertedType == DECIMAL) {
+				bytes = ((BigDecimal) value).setScale(column.scale, RoundingMode.HALF_UP).unscaledValue()
+						.toByteArray();
+			} else if (value instanceof byte[]) {
+				bytes = (byte[]) value;
+			} else {
+				bytes = ColumnCodec.toText(value).getBytes(StandardCharsets.UTF_8);
+			}
+			out.putInt(bytes.length);
+			out.put(bytes);
+		}
+	}
+
+	/**
+	 * Compresses the column's current page onto its chunk.
+	 */
+	private void flushPage(Column column) throws IOException {
+		page.clear();
+		// definition levels: 4 byte length, then bit packed runs of up to
+		// 63 groups of 8 levels
+		int lengthAt = page.size();
+		page.putInt(0);
+		int groups = (column.pageValues + 7) / 8;
+		for (int g = 0; g < groups;) {
+			int run = Math.min(63, groups - g);
+			page.putVarint((run << 1) | 1);
+			for (int end = g + run; g < end; g++) {
+				int bits = 0;
+				for (int b = 0; b < 8; b++) {
+					int v = g * 8 + b;
+					if ((v < column.pageValues) && (column.levels[v] != 0)) {
+						bits |= 1 << b;
+					}
+				}
+				page.put(bits);
+			}
+		}
+		page.putInt(lengthAt, page.size() - lengthAt - 4);
+		page.put(column.values);
+
+		ByteSink body = compress(page);
+		header.clear();
+		ThriftCompactOutput thrift = new ThriftCompactOutput(header);
+		thrift.beginStruct();
+		thrift.i32(1, DATA_PAGE);
+		thrift.i32(2, page.size());
+		thrift.i32(3, body.size());
+		thrift.beginStruct(5);
+		thrift.i32(1, column.pageValues);
+		thrift.i32(2, PLAIN);
+		thrift.i32(3, RLE);
+		thrift.i32(4, RLE);
+		thrift.endStruct();
+		thrift.endStruct();
+
+		column.chunk.put(header);
+		column.chunk.put(body);
+		column.chunkUncompressed += header.size() + page.size();
+		column.chunkValues += column.pageValues;
+		column.values.clear();
+		column.pageValues = 0;
+	}
+
+	private ByteSink compress(ByteSink data) throws IOException {
+		switch (codec) {
+		case SNAPPY:
+			compressed.clear();
+			snappy.compress(data.array(), 0, data.size(), compressed);
+			return compressed;
+		case GZIP:
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.size() / 2);
+			GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+			gzip.write(data.array(), 0, data.size());
+			gzip.close();
+			compressed.clear();
+			compressed.put(bytes.toByteArray());
+			return compressed;
+		default:
+			return data;
+		}
+	}
+
+	/**
+	 * Writes the buffered column chunks of the current row group.
+	 */
+	private void flushRowGroup() throws IOException {
+		if (groupRows == 0) {
+			return;
+		}
+		Chunk[] chunks = new Chunk[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			Column column = columns[i];
+			if (column.pageValues > 0) {
+				flushPage(column);
+			}
+			chunks[i] = new Chunk(position, column.chunkValues, column.chunkUncompressed, column.chunk.size());
+			column.chunk.writeTo(output);
+			position += column.chunk.size();
+			column.chunk.clear();
+			column.chunkValues = 0;
+			column.chunkUncompressed = 0;
+		}
+		rowGroups.add(new RowGroup(chunks, groupRows));
+		totalRows += groupRows;
+		groupRows = 0;
+		groupBytes = 0;
+	}
+
+	/**
+	 * Writes the last row group and the footer, and closes the file.
+	 */
+	private void finishFile() throws IOException {
+		flushRowGroup();
+		ByteSink footer = new ByteSink(1024);
+		ThriftCompactOutput thrift = new ThriftCompactOutput(footer);
+		thrift.beginStruct();
+		thrift.i32(1, 1);
+		thrift.list(2, ThriftCompactOutput.STRUCT, columns.length + 1);
+		thrift.beginStruct();
+		thrift.string(4, "schema");
+		thrift.i32(5, columns.length);
+		thrift.endStruct();
+		for (Column column : columns) {
+			thrift.beginStruct();
+			thrift.i32(1, column.type);
+			thrift.i32(3, OPTIONAL);
+			thrift.string(4, column.name);
+			if (column.convertedType != NONE) {
+				thrift.i32(6, column.convertedType);
+			}
+			if (column.convertedType == DECIMAL) {
+				thrift.i32(7, column.scale);
+				thrift.i32(8, column.precision);
+			}
+			thrift.endStruct();
+		}
+		thrift.i64(3, totalRows);
+		thrift.list(4, ThriftCompactOutput.STRUCT, rowGroups.size());
+		for (RowGroup group : rowGroups) {
+			thrift.beginStruct();
+			thrift.list(1, ThriftCompactOutput.STRUCT, columns.length);
+			long groupSize = 0;
+			for (int i = 0; i < columns.length; i++) {
+				Chunk chunk = group.chunks[i];
+				groupSize += chunk.uncompressed;
+				thrift.beginStruct();
+				thrift.i64(2, chunk.offset);
+				thrift.beginStruct(3);
+				thrift.i32(1, columns[i].type);
+				thrift.list(2, ThriftCompactOutput.I32, 2);
+				thrift.element(PLAIN);
+				thrift.element(RLE);
+				thrift.list(3, ThriftCompactOutput.BINARY, 1);
+				thrift.element(columns[i].name);
+				thrift.i32(4, codec);
+				thrift.i64(5, chunk.values);
+				thrift.i64(6, chunk.uncompressed);
+				thrift.i64(7, chunk.compressed);
+				thrift.i64(9, chunk.offset);
+				thrift.endStruct();
+				thrift.endStruct();
+			}
+			thrift.i64(2, groupSize);
+			thrift.i64(3, group.rows);
+			thrift.endStruct();
+		}
+		thrift.string(6, "JdbcTool");
+		thrift.endStruct();
+
+		footer.writeTo(output);
+		ByteSink tail = new ByteSink(8);
+		tail.putInt(footer.size());
+		tail.put(MAGIC);
+		tail.writeTo(output);
+		output.close();
+		output = null;
+	}
+
+	public void endResult() throws IOException {
+	}
+
+	public void writeUpdateCount(int count) throws IOException {
+		if (!options.showResultsOnly) {
+			options.console.println();
+			options.console.println("Updated: " + count);
+			options.console.println();
+		}
+	}
+
+	public void endPage() throws IOException {
+		if (output != null) {
+			output.flush();
+		}
+	}
+
+	public void close() throws IOException {
+		if (output != null) {
+			finishFile();
+		}
+	}
+}
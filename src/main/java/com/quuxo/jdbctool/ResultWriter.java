@@ -0,0 +1,101 @@
+/**
+ * JdbcTool: Command line pain relief for JDBC databases.
+ * Copyright (C) 2007, Quuxo Software.
+ * JdbcTool 2.0 - XLS, CSV, TEXT, HTML output and multi-tab features
+ * Copyright 2009-2017 Renny Koshy
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+package com.quuxo.jdbctool;
+
+import java.io.IOException;
+
+/**
+ * Renders query results in one output format.
+ *
+ * Implementations are found with <code>ServiceLoader</code> and picked by
+ * the name given to <code>-f</code>. For each statement the core calls
+ * <code>beginPage</code>, then <code>beginResult</code>,
+ * <code>writeRows</code> and <code>endResult</code> for every result set
+ * (or <code>writeUpdateCount</code> for an update), and finally
+ * <code>endPage</code>. Row values are typed by column as described in
+ * <code>ColumnCodec</code> (<code>Long</code>, <code>Double</code>,
+ * <code>BigDecimal</code>, <code>Timestamp</code>, <code>String</code>, ...),
+ * with null for SQL NULL.
+ */
+public interface ResultWriter {
+	/**
+	 * How SQL NULL is shown by the text formats.
+	 */
+	String NULL_TEXT = "<NULL>";
+
+	/**
+	 * The format name accepted by <code>-f</code>, e.g. "csv".
+	 */
+	String getFormat();
+
+	/**
+	 * True if the writer has to be given the final column widths, so every
+	 * row must be read before <code>beginResult</code>.
+	 */
+	boolean needsAllRows();
+
+	/**
+	 * True if the writer lays out columns using the widths passed to
+	 * <code>beginResult</code>; they are then sized from a sample of rows.
+	 */
+	boolean usesWidths();
+
+	/**
+	 * True if the writer prints values as the driver's text, in which case
+	 * every column is a <code>String</code> from <code>getString</code>.
+	 */
+	boolean printsDriverText();
+
+	/**
+	 * Called once, before the first statement.
+	 */
+	void open(OutputOptions options) throws IOException;
+
+	void beginPage() throws IOException;
+
+	/**
+	 * Starts a result set. <code>types</code> are <code>java.sql.Types</code>;
+	 * <code>precisions</code> and <code>scales</code> are only filled in for
+	 * DECIMAL and NUMERIC columns and are 0 when unknown. <code>widths</code>
+	 * are the column widths in characters, sized from the rows read so far.
+	 */
+	void beginResult(String[] names, int[] types, int[] precisions, int[] scales, int[] widths)
+			throws IOException;
+
+	/**
+	 * Writes the first <code>count</code> rows of <code>rows</code>. The arrays
+	 * may be reused once this returns.
+	 */
+	void writeRows(Object[][] rows, int count) throws IOException;
+
+	void endResult() throws IOException;
+
+	void writeUpdateCount(int count) throws IOException;
+
+	void endPage() throws IOException;
+
+	/**
+	 * Called once, after the last statement.
+	 */
+	void close() throws IOException;
+}
@@ -0,0 +1,93 @@
+/**
+ * JdbcTool: Command line pain relief for JDBC databases.
+ * Copyright (C) 2007, Quuxo Software.
+ * JdbcTool 2.0 - XLS, CSV, TEXT, HTML output and multi-tab features
+ * Copyright 2009-2017 Renny Koshy
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+package com.quuxo.jdbctool;
+
+import java.util.ServiceLoader;
+
+/**
+ * Looks up result writers registered in
+ * <code>META-INF/services/com.quuxo.jdbctool.ResultWriter</code>.
+ */
+class ResultWriters {
+	private ResultWriters() {
+	}
+
+	/**
+	 * Returns a new writer for the format name, or null if there is none.
+	 */
+	static ResultWriter forFormat(String format) {
+		for (ResultWriter writer : ServiceLoader.load(ResultWriter.class)) {
+			if (writer.getFormat().equalsIgnoreCase(format)) {
+				return writer;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * The name of the <code>number</code>th file written for <code>-o
+	 * name</code>: "out.parquet" for the first, then "out-2.parquet" and so
+	 * on.
+	 */
+	static String numberedFile(String name, int number) {
+		if (number == 1) {
+			return name;
+		}
+		int dot = name.lastIndexOf('.');
+		if ((dot <= name.lastIndexOf('/')) || (dot <= name.lastIndexOf('\\'))) {
+			return name + "-" + number;
+		}
+		return name.substring(0, dot) + "-" + number + name.substring(dot);
+	}
+
+	/**
+	 * The name of shard <code>number</code> of <code>-o pattern</code>: the
+	 * pattern formatted with the number if it has a % conversion in it, else
+	 * the pattern with "-00001" and so on put before the extension.
+	 */
+	static String shardFile(String pattern, int number) {
+		if (pattern.indexOf('%') >= 0) {
+			return String.format(pattern, number);
+		}
+		int start = Math.max(pattern.lastIndexOf('/'), pattern.lastIndexOf('\\')) + 1;
+		// all of ".csv.gz" counts as the extension
+		int dot = pattern.indexOf('.', start + 1);
+		if (dot < 0) {
+			dot = pattern.length();
+		}
+		return pattern.substring(0, dot) + String.format("-%05d", number) + pattern.substring(dot);
+	}
+
+	/**
+	 * A key that is equal for result sets with the same column names and
+	 * types, which can then go into the same file.
+	 */
+	static String shape(String[] names, int[] types, int[] precisions, int[] scales) {
+		StringBuilder key = new StringBuilder();
+		for (int i = 0; i < names.length; i++) {
+			key.append(names[i]).append('\0').append(types[i]).append('\0').append(precisions[i]).append('\0')
+					.append(scales[i]).append('\0');
+		}
+		return key.toString();
+	}
+}
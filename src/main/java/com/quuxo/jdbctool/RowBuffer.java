@@ -0,0 +1,439 @@
+/**
+ * JdbcTool: Command line pain relief for JDBC databases.
+ * Copyright (C) 2007, Quuxo Software.
+ * JdbcTool 2.0 - XLS, CSV, TEXT, HTML output and multi-tab features
+ * Copyright 2009-2017 Renny Koshy
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+package com.quuxo.jdbctool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Holds buffered rows outside the Java heap, for output formats that need to
+ * see every row before printing the first one.
+ *
+ * Rows are encoded into direct <code>ByteBuffer</code> arenas. Each row is a
+ * null bitmap followed by every non-null value as a type tag and either its
+ * binary form (numbers, dates) or a length prefixed UTF-8 or byte string, and
+ * never spans two arenas. Once the direct arenas reach the memory
+ * cap, further arenas are mapped from a temporary spill file instead. Arenas
+ * are kept by <code>reset()</code> and reused for the next result set.
+ *
+ * Short strings are dictionary encoded per column: each distinct value is
+ * kept once on the heap and later rows only store its code, so reading them
+ * back hands out the same <code>String</code> instead of decoding a new one.
+ * A value joins the dictionary once the first row holding it is written. A
+ * column stops adding to its dictionary once it has too many distinct
+ * values, once it is clear that values rarely repeat, or once the
+ * dictionaries together reach <code>MAX_DICTIONARY_BYTES</code>; codes
+ * already written stay valid.
+ */
+class RowBuffer {
+	static final int ARENA_SIZE = 4 * 1024 * 1024;
+	// value tags
+	private static final byte STRING = 0;
+	private static final byte LONG = 1;
+	private static final byte DOUBLE = 2;
+	private static final byte FLOAT = 3;
+	private static final byte DECIMAL = 4;
+	private static final byte TIMESTAMP = 5;
+	private static final byte DATE = 6;
+	private static final byte BYTES = 7;
+	private static final byte DICTIONARY = 8;
+	static final int MAX_DICTIONARY_SIZE = 4096;
+	// longer strings are unlikely to repeat and costly to keep on the heap
+	static final int MAX_DICTIONARY_VALUE = 64;
+	// values seen before deciding whether a column repeats enough
+	static final int DICTIONARY_TRIAL = 1024;
+	// heap all the dictionaries of a result set may hold, and a rough cost
+	// per entry on top of the chars
+	static final long MAX_DICTIONARY_BYTES = 4L * 1024 * 1024;
+	private static final int DICTIONARY_ENTRY_BYTES = 80;
+
+	private final long memoryCap;
+	private final ArrayList<ByteBuffer> arenas = new ArrayList<ByteBuffer>();
+	private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+	private int cols;
+	private int bitmapBytes;
+	private long directBytes = 0;
+	private int current = -1;
+	private int rows = 0;
+	private File spillFile;
+	private RandomAccessFile spill;
+	private long spillBytes = 0;
+
+	// read state
+	private int readArena;
+	private ByteBuffer readView;
+	private CharBuffer chars = CharBuffer.allocate(256);
+
+	// per column dictionaries; codes is null once a column stops adding
+	private ArrayList<ArrayList<String>> dictionaries = new ArrayList<ArrayList<String>>();
+	private ArrayList<HashMap<String, Integer>> codes = new ArrayList<HashMap<String, Integer>>();
+	private int[] lookups;
+	// columns whose value in the row being encoded is new to the dictionary
+	private boolean[] misses;
+	private long dictionaryBytes = 0;
+
+	RowBuffer(long memoryCap) {
+		this.memoryCap = memoryCap;
+	}
+
+	int getColumnCount() {
+		return cols;
+	}
+
+	int size() {
+		return rows;
+	}
+
+	/**
+	 * Appends a row of values as described in <code>ColumnCodec</code>. A null
+	 * entry is recorded as SQL NULL.
+	 */
+	void add(Object[] values) throws IOException {
+		if (current < 0) {
+			nextArena(ARENA_SIZE);
+		}
+		if (!encode(arenas.get(current), values)) {
+			int needed = bitmapBytes;
+			for (int i = 0; i < cols; i++) {
+				needed += maxEncodedSize(values[i]);
+			}
+			nextArena(Math.max(ARENA_SIZE, needed));
+			if (!encode(arenas.get(current), values)) {
+				throw new IllegalStateException("Row of " + needed + " bytes does not fit a fresh arena");
+			}
+		}
+		admit(values);
+		rows++;
+	}
+
+	/**
+	 * An upper bound on what <code>encodeValue</code> needs free to write
+	 * <code>value</code>, which is never less than the 13 bytes it checks for
+	 * up front.
+	 */
+	private static int maxEncodedSize(Object value) {
+		int size = 13;
+		if (value instanceof String) {
+			// UTF-8 never needs more than 3 bytes per UTF-16 char
+			size = 5 + 3 * ((String) value).length();
+		} else if (value instanceof BigDecimal) {
+			size = 5 + value.toString().length();
+		} else if (value instanceof byte[]) {
+			size = 5 + ((byte[]) value).length;
+		}
+		return Math.max(13, size);
+	}
+
+	private boolean encode(ByteBuffer arena, Object[] values) {
+		int start = arena.position();
+		for (int i = 0; i < cols; i++) {
+			misses[i] = false;
+		}
+		if (arena.remaining() < bitmapBytes) {
+			return false;
+		}
+		for (int b = 0; b < bitmapBytes; b++) {
+			int bits = 0;
+			for (int i = b * 8; (i < cols) && (i < b * 8 + 8); i++) {
+				if (values[i] == null) {
+					bits |= 1 << (i - b * 8);
+				}
+			}
+			arena.put((byte) bits);
+		}
+		for (int i = 0; i < cols; i++) {
+			if ((values[i] != null) && !encodeValue(arena, i, values[i])) {
+				arena.position(start);
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean encodeValue(ByteBuffer arena, int column, Object value) {
+		if (arena.remaining() < 13) {
+			return false;
+		}
+		int code = (value instanceof String) ? dictionaryCode(column, (String) value) : -1;
+		if (code >= 0) {
+			arena.put(DICTIONARY).putInt(code);
+		} else if (value instanceof Long) {
+			arena.put(LONG).putLong((Long) value);
+		} else if (value instanceof Double) {
+			arena.put(DOUBLE).putDouble((Double) value);
+		} else if (value instanceof Float) {
+			arena.put(FLOAT).putFloat((Float) value);
+		} else if (value instanceof Timestamp) {
+			Timestamp timestamp = (Timestamp) value;
+			arena.put(TIMESTAMP).putLong(timestamp.getTime()).putInt(timestamp.getNanos());
+		} else if (value instanceof Date) {
+			arena.put(DATE).putLong(((Date) value).getTime());
+		} else if (value instanceof byte[]) {
+			byte[] bytes = (byte[]) value;
+			if (arena.remaining() < 5 + bytes.length) {
+				return false;
+			}
+			arena.put(BYTES).putInt(bytes.length).put(bytes);
+		} else if (value instanceof BigDecimal) {
+			arena.put(DECIMAL);
+			return encodeString(arena, value.toString());
+		} else {
+			arena.put(STRING);
+			return encodeString(arena, (String) value);
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the dictionary code for <code>value</code>, or -1 to store the
+	 * value as is. A value the column's open dictionary doesn't have yet is
+	 * noted, and added by <code>admit</code> once its row is written.
+	 */
+	private int dictionaryCode(int column, String value) {
+		HashMap<String, Integer> map = codes.get(column);
+		if ((map == null) || (value.length() > MAX_DICTIONARY_VALUE)) {
+			return -1;
+		}
+		Integer code = map.get(value);
+		if (code != null) {
+			return code;
+		}
+		misses[column] = true;
+		return -1;
+	}
+
+	/**
+	 * Counts the dictionary lookups of a written row and adds the values it
+	 * missed, closing any dictionary that turns out not to pay.
+	 */
+	private void admit(Object[] values) {
+		for (int i = 0; i < cols; i++) {
+			if ((codes.get(i) == null) || !(values[i] instanceof String)
+					|| (((String) values[i]).length() > MAX_DICTIONARY_VALUE)) {
+				continue;
+			}
+			lookups[i]++;
+			if (!misses[i]) {
+				continue;
+			}
+			String value = (String) values[i];
+			ArrayList<String> dictionary = dictionaries.get(i);
+			long size = DICTIONARY_ENTRY_BYTES + 2L * value.length();
+			if ((dictionary.size() >= MAX_DICTIONARY_SIZE) || (dictionaryBytes + size > MAX_DICTIONARY_BYTES)
+					|| ((lookups[i] >= DICTIONARY_TRIAL) && (dictionary.size() * 2 > lookups[i]))) {
+				// too many distinct values to be worth it
+				codes.set(i, null);
+				continue;
+			}
+			codes.get(i).put(value, dictionary.size());
+			dictionary.add(value);
+			dictionaryBytes += size;
+		}
+	}
+
+	private boolean encodeString(ByteBuffer arena, String value) {
+		if (arena.remaining() < 4) {
+			return false;
+		}
+		int lengthAt = arena.position();
+		arena.position(lengthAt + 4);
+		encoder.reset();
+		CoderResult result = encoder.encode(CharBuffer.wrap(value), arena, true);
+		if (result.isOverflow()) {
+			return false;
+		}
+		encoder.flush(arena);
+		arena.putInt(lengthAt, arena.position() - lengthAt - 4);
+		return true;
+	}
+
+	private void nextArena(int size) throws IOException {
+		// reuse what an earlier result set left behind
+		while (++current < arenas.size()) {
+			if (arenas.get(current).capacity() >= size) {
+				return;
+			}
+		}
+		ByteBuffer arena;
+		if (directBytes + size <= memoryCap) {
+			arena = ByteBuffer.allocateDirect(size);
+			directBytes += size;
+		} else {
+			if (spill == null) {
+				spillFile = File.createTempFile("jdbctool", ".spill");
+				spillFile.deleteOnExit();
+				spill = new RandomAccessFile(spillFile, "rw");
+			}
+			arena = spill.getChannel().map(FileChannel.MapMode.READ_WRITE, spillBytes, size);
+			spillBytes += size;
+		}
+		arenas.add(arena);
+		current = arenas.size() - 1;
+	}
+
+	/**
+	 * Starts reading from the first row.
+	 */
+	void rewind() {
+		readArena = -1;
+		readView = null;
+	}
+
+	/**
+	 * Reads the next row into <code>values</code>, with null for SQL NULL.
+	 * Returns false after the last row.
+	 */
+	boolean next(Object[] values) throws CharacterCodingException {
+		while ((readView == null) || !readView.hasRemaining()) {
+			if (++readArena > current) {
+				return false;
+			}
+			readView = arenas.get(readArena).duplicate();
+			readView.flip();
+		}
+		int bitmapAt = readView.position();
+		readView.position(bitmapAt + bitmapBytes);
+		for (int i = 0; i < cols; i++) {
+			if ((readView.get(bitmapAt + i / 8) & (1 << (i % 8))) != 0) {
+				values[i] = null;
+				continue;
+			}
+			switch (readView.get()) {
+			case DICTIONARY:
+				values[i] = dictionaries.get(i).get(readView.getInt());
+				break;
+			case LONG:
+				values[i] = readView.getLong();
+				break;
+			case DOUBLE:
+				values[i] = readView.getDouble();
+				break;
+			case FLOAT:
+				values[i] = readView.getFloat();
+				break;
+			case TIMESTAMP:
+				Timestamp timestamp = new Timestamp(readView.getLong());
+				timestamp.setNanos(readView.getInt());
+				values[i] = timestamp;
+				break;
+			case DATE:
+				values[i] = new Date(readView.getLong());
+				break;
+			case BYTES:
+				byte[] bytes = new byte[readView.getInt()];
+				readView.get(bytes);
+				values[i] = bytes;
+				break;
+			case DECIMAL:
+				values[i] = new BigDecimal(decodeString());
+				break;
+			default:
+				values[i] = decodeString();
+			}
+		}
+		return true;
+	}
+
+	private String decodeString() throws CharacterCodingException {
+		int length = readView.getInt();
+		int limit = readView.limit();
+		readView.limit(readView.position() + length);
+		if (chars.capacity() < length) {
+			chars = CharBuffer.allocate(length);
+		}
+		chars.clear();
+		decoder.reset();
+		CoderResult result = decoder.decode(readView, chars, true);
+		if (result.isError()) {
+			result.throwException();
+		}
+		decoder.flush(chars);
+		chars.flip();
+		readView.limit(limit);
+		return chars.toString();
+	}
+
+	/**
+	 * Drops all rows and starts a new result set with <code>cols</code>
+	 * columns, keeping the arenas for reuse.
+	 */
+	void reset(int cols) {
+		for (ByteBuffer arena : arenas) {
+			arena.clear();
+		}
+		this.cols = cols;
+		this.bitmapBytes = (cols + 7) / 8;
+		dictionaries.clear();
+		codes.clear();
+		for (int i = 0; i < cols; i++) {
+			dictionaries.add(new ArrayList<String>());
+			codes.add(new HashMap<String, Integer>());
+		}
+		lookups = new int[cols];
+		misses = new boolean[cols];
+		dictionaryBytes = 0;
+		current = -1;
+		rows = 0;
+		rewind();
+	}
+
+	/**
+	 * Releases the arenas and removes the spill file.
+	 */
+	void close() {
+		arenas.clear();
+		dictionaries.clear();
+		codes.clear();
+		dictionaryBytes = 0;
+		directBytes = 0;
+		spillBytes = 0;
+		current = -1;
+		rows = 0;
+		if (spill != null) {
+			try {
+				spill.close();
+			} catch (IOException e) {
+				// nothing useful to do
+			}
+			spillFile.delete();
+			spill = null;
+		}
+	}
+}
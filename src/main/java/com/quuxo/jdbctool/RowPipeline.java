@@ -0,0 +1,165 @@
+/**
+ * JdbcTool: Command line pain relief for JDBC databases.
+ * Copyright (C) 2007, Quuxo Software.
+ * JdbcTool 2.0 - XLS, CSV, TEXT, HTML output and multi-tab features
+ * Copyright 2009-2017 Renny Koshy
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+package com.quuxo.jdbctool;
+
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Fetches rows on a background thread while the caller renders them.
+ *
+ * A fixed set of row batches circulates between two bounded queues: the
+ * fetch thread fills free batches and hands them over, the rendering thread
+ * hands them back once printed. When output is slower than the database the
+ * fetch thread blocks on the free queue, so no more than
+ * <code>depth</code> batches are ever in flight.
+ */
+class RowPipeline {
+	/**
+	 * Reads the next row into <code>values</code>. Called on the fetch thread
+	 * only.
+	 */
+	interface RowSource {
+		boolean next(Object[] values) throws SQLException;
+	}
+
+	static class Batch {
+		final Object[][] rows;
+		int count;
+		final boolean last;
+
+		Batch(int cols, int size, boolean last) {
+			this.rows = new Object[size][cols];
+			this.last = last;
+		}
+	}
+
+	private final RowSource source;
+	private final ArrayBlockingQueue<Batch> free;
+	private final ArrayBlockingQueue<Batch> full;
+	private final Batch end;
+	private volatile Throwable error;
+	private Thread thread;
+
+	RowPipeline(RowSource source, int cols, int batchSize, int depth) {
+		this.source = source;
+		this.free = new ArrayBlockingQueue<Batch>(depth);
+		this.full = new ArrayBlockingQueue<Batch>(depth + 1);
+		for (int i = 0; i < depth; i++) {
+			free.add(new Batch(cols, batchSize, false));
+		}
+		this.end = new Batch(0, 0, true);
+	}
+
+	void start() {
+		thread = new Thread("jdbctool-fetch") {
+			@Override
+			public void run() {
+				fetch();
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void fetch() {
+		Batch batch = null;
+		try {
+			boolean more = true;
+			while (more) {
+				batch = free.take();
+				batch.count = 0;
+				while ((batch.count < batch.rows.length) && (more = source.next(batch.rows[batch.count]))) {
+					batch.count++;
+				}
+				if (batch.count > 0) {
+					full.put(batch);
+				} else {
+					free.put(batch);
+				}
+				batch = null;
+			}
+		} catch (InterruptedException e) {
+			// cancelled
+			return;
+		} catch (Throwable e) {
+			// anything, down to an OutOfMemoryError, still has to end the rows
+			error = e;
+		}
+		try {
+			if ((batch != null) && (batch.count > 0)) {
+				// the rows read before the error
+				full.put(batch);
+			}
+			full.put(end);
+		} catch (InterruptedException e) {
+			// cancelled
+		}
+	}
+
+	/**
+	 * Returns the next filled batch, or null once every row has been taken.
+	 * Rethrows any error the fetch thread ran into.
+	 */
+	Batch take() throws SQLException {
+		Batch batch;
+		try {
+			batch = full.take();
+		} catch (InterruptedException e) {
+			cancel();
+			throw new SQLException("Interrupted while waiting for rows", e);
+		}
+		if (batch.last) {
+			if (error instanceof SQLException) {
+				throw (SQLException) error;
+			} else if (error instanceof Error) {
+				throw (Error) error;
+			} else if (error != null) {
+				throw new SQLException("Fetch failed: " + error, error);
+			}
+			return null;
+		}
+		return batch;
+	}
+
+	/**
+	 * Hands a printed batch back to the fetch thread.
+	 */
+	void release(Batch batch) {
+		free.add(batch);
+	}
+
+	/**
+	 * Stops the fetch thread, e.g. when rendering failed.
+	 */
+	void cancel() {
+		if (thread != null) {
+			thread.interrupt();
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
@@ -0,0 +1,126 @@
+/**
+ * JdbcTool: Command line pain relief for JDBC databases.
+ * Copyright (C) 2007, Quuxo Software.
+ * JdbcTool 2.0 - XLS, CSV, TEXT, HTML output and multi-tab features
+ * Copyright 2009-2017 Renny Koshy
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+package com.quuxo.jdbctool;
+
+import java.util.Arrays;
+
+/**
+ * A Snappy block compressor, the raw format Parquet calls SNAPPY.
+ *
+ * Input is compressed in independent 64 KiB fragments. Four byte sequences
+ * are looked up in a hash table of recent positions; a hit becomes a copy of
+ * the earlier bytes and everything in between a literal. Like the reference
+ * implementation, lookups are spaced out further the longer no match has
+ * been found, so incompressible data passes through quickly.
+ */
+class Snappy {
+	private static final int FRAGMENT_SIZE = 1 << 16;
+	private static final int HASH_BITS = 14;
+
+	private final int[] table = new int[1 << HASH_BITS];
+
+	/**
+	 * Appends the compressed form of <code>length</code> bytes of
+	 * <code>input</code> to <code>out</code>.
+	 */
+	void compress(byte[] input, int offset, int length, ByteSink out) {
+		out.putVarint(length);
+		int end = offset + length;
+		for (int start = offset; start < end; start += FRAGMENT_SIZE) {
+			compressFragment(input, start, Math.min(end, start + FRAGMENT_SIZE), out);
+		}
+	}
+
+	private void compressFragment(byte[] input, int start, int end, ByteSink out) {
+		Arrays.fill(table, -1);
+		int literal = start;
+		int ip = start;
+		int skip = 32;
+		while (ip + 4 <= end) {
+			int word = load(input, ip);
+			int hash = (word * 0x1e35a7bd) >>> (32 - HASH_BITS);
+			int candidate = table[hash];
+			table[hash] = ip;
+			if ((candidate >= start) && (load(input, candidate) == word)) {
+				emitLiteral(input, literal, ip - literal, out);
+				int matched = 4;
+				while ((ip + matched < end) && (input[candidate + matched] == input[ip + matched])) {
+					matched++;
+				}
+				emitCopy(ip - candidate, matched, out);
+				ip += matched;
+				literal = ip;
+				skip = 32;
+			} else {
+				ip += skip++ >> 5;
+			}
+		}
+		emitLiteral(input, literal, end - literal, out);
+	}
+
+	private static int load(byte[] b, int i) {
+		return (b[i] & 0xff) | ((b[i + 1] & 0xff) << 8) | ((b[i + 2] & 0xff) << 16) | ((b[i + 3] & 0xff) << 24);
+	}
+
+	private static void emitLiteral(byte[] input, int from, int length, ByteSink out) {
+		if (length == 0) {
+			return;
+		}
+		int n = length - 1;
+		if (n < 60) {
+			out.put(n << 2);
+		} else if (n < (1 << 8)) {
+			out.put(60 << 2).put(n);
+		} else if (n < (1 << 16)) {
+			out.put(61 << 2).put(n).put(n >> 8);
+		} else if (n < (1 << 24)) {
+			out.put(62 << 2).put(n).put(n >> 8).put(n >> 16);
+		} else {
+			out.put(63 << 2).put(n).put(n >> 8).put(n >> 16).put(n >> 24);
+		}
+		out.put(input, from, length);
+	}
+
+	private static void emitCopy(int distance, int length, ByteSink out) {
+		// a copy element covers at most 64 bytes and at least 4
+		while (length >= 68) {
+			emitCopyUpTo64(distance, 64, out);
+			length -= 64;
+		}
+		if (length > 64) {
+			emitCopyUpTo64(distance, 60, out);
+			length -= 60;
+		}
+		emitCopyUpTo64(distance, length, out);
+	}
+
+	private static void emitCopyUpTo64(int distance, int length, ByteSink out) {
+		if ((length < 12) && (distance < 2048)) {
+			out.put(1 | ((length - 4) << 2) | ((distance >> 8) << 5));
+			out.put(distance & 0xff);
+		} else {
+			out.put(2 | ((length - 1) << 2));
+			out.putShort(distance);
+		}
+	}
+}
@@ -0,0 +1,118 @@
+/**
+ * JdbcTool: Command line pain relief for JDBC databases.
+ * Copyright (C) 2007, Quuxo Software.
+ * JdbcTool 2.0 - XLS, CSV, TEXT, HTML output and multi-tab features
+ * Copyright 2009-2017 Renny Koshy
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+package com.quuxo.jdbctool;
+
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Loads a CSV file into Snowflake by staging it with <code>PUT</code> and
+ * loading it with <code>COPY INTO</code>. The driver splits, compresses and
+ * uploads the file in parallel and the warehouse loads it, so unlike the
+ * other loaders the file is not cut into chunks here.
+ *
+ * The first rejected row aborts the COPY, so an import that fails has loaded
+ * nothing and can be run again once the file is fixed.
+ */
+class SnowflakeStageLoad {
+	private final Connection connection;
+	private final String table;
+	private final String[] columns;
+	private final char delimiter;
+	private final char quote;
+
+	SnowflakeStageLoad(Connection connection, String table, String[] columns, char delimiter, char quote) {
+		this.connection = connection;
+		this.table = table;
+		this.columns = columns;
+		this.delimiter = delimiter;
+		this.quote = quote;
+	}
+
+	/**
+	 * Uploads and loads <code>file</code> and returns the number of rows
+	 * loaded. The staged copy is removed afterwards.
+	 */
+	long load(String file, int threads) throws SQLException {
+		String path = Paths.get(file).toAbsolutePath().toString().replace('\\', '/');
+		String stage = "@~/jdbctool/" + System.currentTimeMillis() + "-" + System.nanoTime() + "/";
+		Statement statement = connection.createStatement();
+		try {
+			statement.execute("PUT " + literal("file://" + path) + " " + stage
+					+ " PARALLEL = " + Math.max(1, Math.min(99, threads)) + " AUTO_COMPRESS = TRUE");
+			StringBuilder sql = new StringBuilder("COPY INTO ").append(table).append(" (");
+			for (int i = 0; i < columns.length; i++) {
+				if (i > 0) {
+					sql.append(", ");
+				}
+				sql.append(columns[i]);
+			}
+			sql.append(") FROM ").append(stage).append(" FILE_FORMAT = (TYPE = CSV FIELD_DELIMITER = ")
+					.append(literal(String.valueOf(delimiter))).append(" FIELD_OPTIONALLY_ENCLOSED_BY = ")
+					.append(literal(String.valueOf(quote)))
+					.append(" SKIP_HEADER = 1 EMPTY_FIELD_AS_NULL = TRUE ESCAPE_UNENCLOSED_FIELD = NONE")
+					.append(" BINARY_FORMAT = HEX) ON_ERROR = ABORT_STATEMENT");
+			return copy(statement, sql.toString());
+		} finally {
+			try {
+				statement.execute("REMOVE " + stage);
+			} catch (SQLException e) {
+				// leave it for the user stage to clean up
+			}
+			statement.close();
+		}
+	}
+
+	/**
+	 * Runs the COPY and adds up its report, one row per staged file.
+	 */
+	private long copy(Statement statement, String sql) throws SQLException {
+		ResultSet results = statement.executeQuery(sql);
+		long loaded = 0;
+		try {
+			ResultSetMetaData meta = results.getMetaData();
+			int rowsLoaded = 0;
+			for (int i = 1; i <= meta.getColumnCount(); i++) {
+				if (meta.getColumnLabel(i).equalsIgnoreCase("rows_loaded")) {
+					rowsLoaded = i;
+				}
+			}
+			while (results.next()) {
+				if (rowsLoaded > 0) {
+					loaded += results.getLong(rowsLoaded);
+				}
+			}
+		} finally {
+			results.close();
+		}
+		return loaded;
+	}
+
+	private static String literal(String value) {
+		return "'" + value.replace("\\", "\\\\").replace("'", "\\'") + "'";
+	}
+}
@@ -0,0 +1,372 @@
+/**
+ * JdbcTool: Command line pain relief for JDBC databases.
+ * Copyright (C) 2007, Quuxo Software.
+ * JdbcTool 2.0 - XLS, CSV, TEXT, HTML output and multi-tab features
+ * Copyright 2009-2017 Renny Koshy
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+package com.quuxo.jdbctool;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Splits a SQL script into statements as it is read.
+ *
+ * Statements end at the delimiter (";" unless changed with a
+ * <code>DELIMITER</code> line, as in the MySQL client) or at the end of the
+ * input. Delimiters inside quoted strings and identifiers, comments and
+ * PostgreSQL dollar quoted bodies don't count. What else is quoted or a
+ * comment depends on the database, picked from the JDBC URL: MySQL has
+ * backslash escapes, backticks and # comments, PostgreSQL has
+ * <code>$tag$</code> bodies, E'' strings and nested block comments, and SQL
+ * Server also ends a batch at a line holding only <code>GO</code>.
+ *
+ * Input is read in large chunks and only the current statement is kept, so
+ * scripts of any size run in constant memory. Comments in front of a
+ * statement are dropped; those inside it, which may be optimizer hints, are
+ * kept.
+ */
+class StatementSplitter {
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	private final Reader in;
+	private final boolean backslashEscapes;
+	private final boolean hashComments;
+	private final boolean backticks;
+	private final boolean dollarQuotes;
+	private final boolean nestedComments;
+	private final boolean brackets;
+	private final boolean goBatches;
+	private char[] buffer = new char[CHUNK_SIZE];
+	private int position = 0;
+	private int limit = 0;
+	private boolean eof = false;
+	private String delimiter = ";";
+	private int line = 1;
+	private int statementLine = 1;
+	private final StringBuilder sql = new StringBuilder();
+
+	private StatementSplitter(Reader in, boolean mysql, boolean postgresql, boolean sqlServer) {
+		this.in = in;
+		this.backslashEscapes = mysql;
+		this.hashComments = mysql;
+		this.backticks = mysql;
+		this.dollarQuotes = postgresql;
+		this.nestedComments = postgresql;
+		this.brackets = sqlServer;
+		this.goBatches = sqlServer;
+	}
+
+	/**
+	 * A splitter for scripts written for the database at <code>url</code>.
+	 */
+	static StatementSplitter forUrl(Reader in, String url) {
+		return new StatementSplitter(in, url.startsWith("jdbc:mysql:"), url.startsWith("jdbc:postgresql:"),
+				url.startsWith("jdbc:jtds:"));
+	}
+
+	/**
+	 * The line the last statement returned by <code>next</code> started on.
+	 */
+	int getLine() {
+		return statementLine;
+	}
+
+	/**
+	 * Returns the next statement without its delimiter, or null at the end of
+	 * the input. Empty statements are skipped.
+	 */
+	String next() throws IOException {
+		sql.setLength(0);
+		// anything but white space and comments seen yet
+		boolean code = false;
+		boolean lineStart = true;
+		while (true) {
+			int c = read();
+			if (c < 0) {
+				return code ? sql.toString().trim() : null;
+			}
+			if (!code && lineStart && ((c == 'd') || (c == 'D')) && lookingAt("elimiter", true)
+					&& isBlank(peek(8))) {
+				skip(8);
+				delimiter = readLine().trim();
+				if (delimiter.isEmpty()) {
+					delimiter = ";";
+				}
+				continue;
+			}
+			if (goBatches && lineStart && ((c == 'g') || (c == 'G')) && lookingAt("o", true) && isEndOfLine(1)) {
+				readLine();
+				if (code) {
+					return sql.toString().trim();
+				}
+				sql.setLength(0);
+				continue;
+			}
+			if ((c == delimiter.charAt(0)) && lookingAt(delimiter.substring(1), false)) {
+				skip(delimiter.length() - 1);
+				if (code) {
+					return sql.toString().trim();
+				}
+				sql.setLength(0);
+				lineStart = false;
+				continue;
+			}
+			if (c == '\n') {
+				lineStart = true;
+				if (code) {
+					sql.append('\n');
+				}
+				continue;
+			}
+			if (Character.isWhitespace(c)) {
+				if (code) {
+					sql.append((char) c);
+				}
+				continue;
+			}
+			lineStart = false;
+			if (((c == '-') && (peek(0) == '-')) || ((c == '#') && hashComments)) {
+				String comment = readLine();
+				if (code) {
+					sql.append((char) c).append(comment).append('\n');
+				}
+				lineStart = true;
+				continue;
+			}
+			if ((c == '/') && (peek(0) == '*')) {
+				int length = sql.length();
+				sql.append('/');
+				blockComment();
+				if (!code) {
+					sql.setLength(length);
+				}
+				continue;
+			}
+			if (!code) {
+				statementLine = line;
+				code = true;
+			}
+			sql.append((char) c);
+			if (c == '\'') {
+				int before = sql.length() - 2;
+				boolean escapeString = (before >= 0) && ((sql.charAt(before) == 'E') || (sql.charAt(before) == 'e'))
+						&& ((before == 0) || !isIdentifierPart(sql.charAt(before - 1)));
+				quoted('\'', backslashEscapes || (dollarQuotes && escapeString));
+			} else if (c == '"') {
+				quoted('"', backslashEscapes);
+			} else if ((c == '`') && backticks) {
+				quoted('`', false);
+			} else if ((c == '[') && brackets) {
+				quoted(']', false);
+			} else if ((c == '$') && dollarQuotes) {
+				int before = sql.length() - 2;
+				if ((before < 0) || !isIdentifierPart(sql.charAt(before))) {
+					dollarQuoted();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copies a quoted string or identifier up to its closing quote; a doubled
+	 * quote stands for itself.
+	 */
+	private void quoted(char quote, boolean escapes) throws IOException {
+		int c;
+		while ((c = read()) >= 0) {
+			sql.append((char) c);
+			if ((c == '\\') && escapes) {
+				c = read();
+				if (c >= 0) {
+					sql.append((char) c);
+				}
+			} else if (c == quote) {
+				if (peek(0) != quote) {
+					return;
+				}
+				sql.append((char) read());
+			}
+		}
+	}
+
+	/**
+	 * Copies a block comment; the opening slash is already in.
+	 */
+	private void blockComment() throws IOException {
+		sql.append((char) read());
+		int depth = 1;
+		int c;
+		while ((c = read()) >= 0) {
+			sql.append((char) c);
+			if ((c == '*') && (peek(0) == '/')) {
+				sql.append((char) read());
+				if (--depth == 0) {
+					return;
+				}
+			} else if ((c == '/') && (peek(0) == '*') && nestedComments) {
+				sql.append((char) read());
+				depth++;
+			}
+		}
+	}
+
+	/**
+	 * Copies a <code>$tag$ ... $tag$</code> body, if the '$' just read starts
+	 * one. Anything else, such as a <code>$1</code> parameter, is left alone.
+	 */
+	private void dollarQuoted() throws IOException {
+		int length = 0;
+		int c;
+		while ((c = peek(length)) >= 0) {
+			if (c == '$') {
+				break;
+			}
+			if (!(Character.isLetter(c) || (c == '_') || ((length > 0) && Character.isDigit(c)))) {
+				return;
+			}
+			length++;
+		}
+		if (c < 0) {
+			return;
+		}
+		StringBuilder tag = new StringBuilder("$");
+		for (int i = 0; i <= length; i++) {
+			tag.append((char) read());
+		}
+		sql.append(tag, 1, tag.length());
+		String close = tag.toString();
+		while ((c = read()) >= 0) {
+			sql.append((char) c);
+			if ((c == '$') && lookingAt(close.substring(1), false)) {
+				for (int i = 1; i < close.length(); i++) {
+					sql.append((char) read());
+				}
+				return;
+			}
+		}
+	}
+
+	private static boolean isIdentifierPart(char c) {
+		return Character.isLetterOrDigit(c) || (c == '_') || (c == '$');
+	}
+
+	private static boolean isBlank(int c) {
+		return (c >= 0) && Character.isWhitespace(c);
+	}
+
+	/**
+	 * True if only white space follows the next <code>ahead</code> chars up
+	 * to the end of the line.
+	 */
+	private boolean isEndOfLine(int ahead) throws IOException {
+		int c;
+		while ((c = peek(ahead)) >= 0) {
+			if (c == '\n') {
+				return true;
+			}
+			if (!Character.isWhitespace(c)) {
+				return false;
+			}
+			ahead++;
+		}
+		return true;
+	}
+
+	/**
+	 * Reads up to and including the next line break, and returns the line
+	 * without it.
+	 */
+	private String readLine() throws IOException {
+		StringBuilder text = new StringBuilder();
+		int c;
+		while (((c = read()) >= 0) && (c != '\n')) {
+			text.append((char) c);
+		}
+		return text.toString();
+	}
+
+	private boolean lookingAt(String text, boolean ignoreCase) throws IOException {
+		for (int i = 0; i < text.length(); i++) {
+			int c = peek(i);
+			if ((c < 0) || ((c != text.charAt(i))
+					&& !(ignoreCase && (Character.toLowerCase((char) c) == text.charAt(i))))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int read() throws IOException {
+		if ((position == limit) && !fill(1)) {
+			return -1;
+		}
+		char c = buffer[position++];
+		if (c == '\n') {
+			line++;
+		}
+		return c;
+	}
+
+	/**
+	 * The char <code>ahead</code> chars past the next one, without reading
+	 * it, or -1 past the end of the input.
+	 */
+	private int peek(int ahead) throws IOException {
+		if ((position + ahead >= limit) && !fill(ahead + 1)) {
+			return -1;
+		}
+		return buffer[position + ahead];
+	}
+
+	private void skip(int count) throws IOException {
+		for (int i = 0; i < count; i++) {
+			read();
+		}
+	}
+
+	/**
+	 * Reads until at least <code>count</code> chars are buffered, and returns
+	 * false if the input ends first.
+	 */
+	private boolean fill(int count) throws IOException {
+		if (limit - position >= count) {
+			return true;
+		}
+		if (position > 0) {
+			System.arraycopy(buffer, position, buffer, 0, limit - position);
+			limit -= position;
+			position = 0;
+		}
+		if (count > buffer.length) {
+			char[] grown = new char[Math.max(buffer.length * 2, count)];
+			System.arraycopy(buffer, 0, grown, 0, limit);
+			buffer = grown;
+		}
+		while (!eof && (limit < count)) {
+			int n = in.read(buffer, limit, buffer.length - limit);
+			if (n < 0) {
+				eof = true;
+			} else {
+				limit += n;
+			}
+		}
+		return limit >= count;
+	}
+}
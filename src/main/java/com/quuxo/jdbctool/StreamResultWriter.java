@@ -0,0 +1,253 @@
+/**
+ * JdbcTool: Command line pain relief for JDBC databases.
+ * Copyright (C) 2007, Quuxo Software.
+ * JdbcTool 2.0 - XLS, CSV, TEXT, HTML output and multi-tab features
+ * Copyright 2009-2017 Renny Koshy
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+package com.quuxo.jdbctool;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Base for the formats that print UTF-8 text to the output file or stdout.
+ *
+ * Rows are formatted by <code>formatRow</code>, which only touches its
+ * arguments, so batches can also be formatted on other threads into their own
+ * buffers and handed to <code>write</code> in order.
+ *
+ * With a row or byte limit set the output is split into shards named from
+ * the <code>-o</code> pattern. Each shard is written under a hidden temporary
+ * name and renamed once it is full, so a loader watching the directory only
+ * ever sees complete files. A new shard is started between rows, by ending
+ * the page and starting it again, so it gets the format's headers.
+ */
+public abstract class StreamResultWriter implements ResultWriter {
+	protected OutputOptions options;
+	protected ChannelOutput output;
+	protected String[] names;
+	protected int[] types;
+	protected int[] precisions;
+	protected int[] scales;
+	protected int[] widths;
+	private boolean gzip;
+	// the shard being written and its final name, null when not sharding
+	private File shardTemp;
+	private File shardTarget;
+	private int shardNumber = 0;
+	private long shardRows = 0;
+
+	public boolean needsAllRows() {
+		return false;
+	}
+
+	public boolean usesWidths() {
+		return false;
+	}
+
+	public boolean printsDriverText() {
+		return true;
+	}
+
+	public void open(OutputOptions options) throws IOException {
+		this.options = options;
+		gzip = isGzip(options);
+		if ((options.shardRows > 0) || (options.shardBytes > 0)) {
+			if (options.outputFile == null) {
+				throw new IOException("Sharded output needs a file name pattern, use -o");
+			}
+			openShard();
+			return;
+		}
+		if (options.outputFile != null) {
+			output = ChannelOutput.toFile(options.outputFile);
+		} else {
+			output = ChannelOutput.toStdout();
+		}
+		if (gzip) {
+			output.compressed(Runtime.getRuntime().availableProcessors());
+		}
+	}
+
+	/**
+	 * True if the output is to be gzip compressed, as asked for with
+	 * <code>-C</code> or by an output file ending in ".gz".
+	 */
+	static boolean isGzip(OutputOptions options) throws IOException {
+		String compression = options.compression;
+		if ((compression == null) && (options.outputFile != null)) {
+			String name = options.outputFile.toLowerCase();
+			if (name.endsWith(".gz")) {
+				compression = "gzip";
+			} else if (name.endsWith(".zst")) {
+				compression = "zstd";
+			}
+		}
+		if ((compression == null) || compression.equalsIgnoreCase("none")) {
+			return false;
+		}
+		if (compression.equalsIgnoreCase("gzip")) {
+			return true;
+		}
+		throw new IOException("Text output can be compressed with gzip only, not " + compression);
+	}
+
+	public void beginPage() throws IOException {
+	}
+
+	public void beginResult(String[] names, int[] types, int[] precisions, int[] scales, int[] widths)
+			throws IOException {
+		this.names = names;
+		this.types = types;
+		this.precisions = precisions;
+		this.scales = scales;
+		this.widths = widths;
+	}
+
+	public void writeRows(Object[][] rows, int count) throws IOException {
+		for (int r = 0; r < count; r++) {
+			if (isShardFull(1)) {
+				nextShard();
+			}
+			writeRow(rows[r]);
+			shardRows++;
+		}
+	}
+
+	/**
+	 * Prints one row of a result to the output.
+	 */
+	protected void writeRow(Object[] values) throws IOException {
+		formatRow(output, values);
+	}
+
+	/**
+	 * Prints one row to <code>out</code> using the current result's columns.
+	 */
+	public abstract void formatRow(ChannelOutput out, Object[] values) throws IOException;
+
+	/**
+	 * Writes <code>rows</code> rows already formatted by
+	 * <code>formatRow</code>.
+	 */
+	public void write(byte[] bytes, int offset, int length, int rows) throws IOException {
+		if (isShardFull(rows)) {
+			nextShard();
+		}
+		writeFormatted(bytes, offset, length);
+		shardRows += rows;
+	}
+
+	protected void writeFormatted(byte[] bytes, int offset, int length) throws IOException {
+		output.write(bytes, offset, length);
+	}
+
+	/**
+	 * True if the current shard can't take <code>rows</code> more rows. A
+	 * shard always gets at least one row (or batch of rows), and the byte
+	 * limit, which counts text before compression, is checked before each
+	 * row, so a shard can end up one row over it.
+	 */
+	private boolean isShardFull(int rows) {
+		if ((shardTarget == null) || (shardRows == 0)) {
+			return false;
+		}
+		return ((options.shardRows > 0) && (shardRows + rows > options.shardRows))
+				|| ((options.shardBytes > 0) && (output.position() >= options.shardBytes));
+	}
+
+	private void nextShard() throws IOException {
+		endResult();
+		endPage();
+		closeShard();
+		openShard();
+		beginPage();
+		beginResult(names, types, precisions, scales, widths);
+	}
+
+	private void openShard() throws IOException {
+		shardNumber++;
+		shardTarget = new File(ResultWriters.shardFile(options.outputFile, shardNumber)).getAbsoluteFile();
+		shardTemp = new File(shardTarget.getParentFile(), "." + shardTarget.getName() + ".tmp");
+		output = ChannelOutput.toFile(shardTemp.getPath());
+		if (gzip) {
+			output.compressed(Runtime.getRuntime().availableProcessors());
+		}
+		shardRows = 0;
+	}
+
+	/**
+	 * Closes the shard and renames it to its final name.
+	 */
+	private void closeShard() throws IOException {
+		endOutput();
+		output.close();
+		try {
+			Files.move(shardTemp.toPath(), shardTarget.toPath(), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(shardTemp.toPath(), shardTarget.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	public void endResult() throws IOException {
+	}
+
+	public void writeUpdateCount(int count) throws IOException {
+		if (!options.showResultsOnly) {
+			output.println();
+			output.println("Updated: " + count);
+			output.println();
+		}
+	}
+
+	public void endPage() throws IOException {
+		output.flush();
+	}
+
+	/**
+	 * Passes what has been buffered so far on to the file or stdout.
+	 */
+	public void flush() throws IOException {
+		output.flush();
+	}
+
+	public void close() throws IOException {
+		if (shardTarget != null) {
+			closeShard();
+		} else {
+			endOutput();
+			output.close();
+		}
+	}
+
+	/**
+	 * Called before the output, or a shard of it, is closed, for formats
+	 * that have to end the document.
+	 */
+	protected void endOutput() throws IOException {
+	}
+
+	protected static String text(Object value) {
+		return (value != null) ? ColumnCodec.toText(value) : NULL_TEXT;
+	}
+}
@@ -0,0 +1,96 @@
+/**
+ * JdbcTool: Command line pain relief for JDBC databases.
+ * Copyright (C) 2007, Quuxo Software.
+ * JdbcTool 2.0 - XLS, CSV, TEXT, HTML output and multi-tab features
+ * Copyright 2009-2017 Renny Koshy
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+package com.quuxo.jdbctool;
+
+import java.io.IOException;
+
+/**
+ * Plain text tables with fixed width columns.
+ */
+public class TextResultWriter extends StreamResultWriter {
+	public String getFormat() {
+		return "text";
+	}
+
+	@Override
+	public boolean usesWidths() {
+		return true;
+	}
+
+	@Override
+	public void beginResult(String[] names, int[] types, int[] precisions, int[] scales, int[] widths)
+			throws IOException {
+		super.beginResult(names, types, precisions, scales, widths);
+		if (options.headings) {
+			printLine();
+			output.print("|");
+			for (int i = 0; i < names.length; i++) {
+				output.print(" ");
+				output.print(names[i]);
+				for (int w = names[i].length(); w < widths[i]; w++) {
+					output.print(" ");
+				}
+				output.print(" |");
+			}
+			output.println();
+			printLine();
+		}
+	}
+
+	@Override
+	public void formatRow(ChannelOutput out, Object[] values) throws IOException {
+		out.print("|");
+		for (int i = 0; i < values.length; i++) {
+			Object value = values[i];
+			int length;
+			out.print(" ");
+			if (value != null) {
+				ColumnCodec.print(out, value);
+				length = ColumnCodec.textLength(value);
+			} else {
+				out.print(NULL_TEXT);
+				length = NULL_TEXT.length();
+			}
+			for (int w = length; w < widths[i]; w++) {
+				out.print(" ");
+			}
+			out.print(" |");
+		}
+		out.println();
+	}
+
+	@Override
+	public void endResult() throws IOException {
+		printLine();
+	}
+
+	protected void printLine() throws IOException {
+		output.print("-");
+		for (int i = 0; i < widths.length; i++) {
+			for (int w = -3; w < widths[i]; w++) {
+				output.print("-");
+			}
+		}
+		output.println();
+	}
+}
@@ -0,0 +1,133 @@
+/**
+ * JdbcTool: Command line pain relief for JDBC databases.
+ * Copyright (C) 2007, Quuxo Software.
+ * JdbcTool 2.0 - XLS, CSV, TEXT, HTML output and multi-tab features
+ * Copyright 2009-2017 Renny Koshy
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+package com.quuxo.jdbctool;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Just enough of Thrift's compact protocol to write Parquet page headers and
+ * file footers: structs, lists, i32, i64 and strings.
+ */
+class ThriftCompactOutput {
+	static final int I32 = 5;
+	static final int I64 = 6;
+	static final int BINARY = 8;
+	static final int LIST = 9;
+	static final int STRUCT = 12;
+
+	private final ByteSink out;
+	// last field id of each open struct
+	private int[] lastField = new int[16];
+	private int depth = 0;
+
+	ThriftCompactOutput(ByteSink out) {
+		this.out = out;
+	}
+
+	private void fieldHeader(int id, int type) {
+		int delta = id - lastField[depth];
+		if ((delta > 0) && (delta <= 15)) {
+			out.put((delta << 4) | type);
+		} else {
+			out.put(type);
+			out.putVarint(zigzag(id));
+		}
+		lastField[depth] = id;
+	}
+
+	private static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	void i32(int id, int value) {
+		fieldHeader(id, I32);
+		out.putVarint(zigzag(value));
+	}
+
+	void i64(int id, long value) {
+		fieldHeader(id, I64);
+		out.putVarint(zigzag(value));
+	}
+
+	void string(int id, String value) {
+		fieldHeader(id, BINARY);
+		writeString(value);
+	}
+
+	private void writeString(String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.putVarint(bytes.length);
+		out.put(bytes);
+	}
+
+	/**
+	 * Starts a struct valued field; close it with <code>endStruct</code>.
+	 */
+	void beginStruct(int id) {
+		fieldHeader(id, STRUCT);
+		push();
+	}
+
+	/**
+	 * Starts a struct that is a list element or the top level message.
+	 */
+	void beginStruct() {
+		push();
+	}
+
+	private void push() {
+		if (++depth == lastField.length) {
+			int[] grown = new int[depth * 2];
+			System.arraycopy(lastField, 0, grown, 0, depth);
+			lastField = grown;
+		}
+		lastField[depth] = 0;
+	}
+
+	void endStruct() {
+		out.put(0);
+		depth--;
+	}
+
+	/**
+	 * Starts a list field of <code>size</code> elements, which are then
+	 * written with the element methods or as structs.
+	 */
+	void list(int id, int elementType, int size) {
+		fieldHeader(id, LIST);
+		if (size < 15) {
+			out.put((size << 4) | elementType);
+		} else {
+			out.put(0xf0 | elementType);
+			out.putVarint(size);
+		}
+	}
+
+	void element(int value) {
+		out.putVarint(zigzag(value));
+	}
+
+	void element(String value) {
+		writeString(value);
+	}
+}
@@ -0,0 +1,681 @@
+/**
+ * JdbcTool: Command line pain relief for JDBC databases.
+ * Copyright (C) 2007, Quuxo Software.
+ * JdbcTool 2.0 - XLS, CSV, TEXT, HTML output and multi-tab features
+ * Copyright 2009-2017 Renny Koshy
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+package com.quuxo.jdbctool;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.DataFormat;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.CellRangeAddress;
+
+/**
+ * Excel workbooks, one sheet per result set. Sheets can be named and titled
+ * with <code>-T</code>, and appended to an existing workbook with
+ * <code>-a</code>.
+ *
+ * The sheet logic only uses POI's format neutral interfaces; subclasses pick
+ * the workbook implementation. A result set that outgrows a sheet continues
+ * on a new sheet, with the headings repeated.
+ *
+ * When appending, the workbook is read once and kept for the session, and only
+ * written out on close or on <code>checkpoint()</code>. The file is always
+ * replaced through a temporary file and a rename, so it is never left half
+ * written.
+ */
+public class XlsResultWriter implements ResultWriter {
+	// Distinct specs kept before the cache starts over
+	static final int MAX_CACHED_FORMATS = 1024;
+	static final String DATE_FORMAT = "yyyy-mm-dd";
+	static final String TIMESTAMP_FORMAT = "yyyy-mm-dd hh:mm:ss";
+
+	/**
+	 * A parsed <code>{...}</code> spec: the style it resolves to, how many
+	 * columns to the right the cell is merged with, and where the cell text
+	 * starts.
+	 */
+	private static class CellFormat {
+		final CellStyle style;
+		final boolean merge;
+		final int mergeCells;
+		final int textStart;
+
+		CellFormat(CellStyle style, boolean merge, int mergeCells, int textStart) {
+			this.style = style;
+			this.merge = merge;
+			this.mergeCells = mergeCells;
+			this.textStart = textStart;
+		}
+	}
+
+	private OutputOptions options;
+	private Workbook workbook;
+	private Sheet currentSheet;
+	private int nextRowNum;
+	private HashMap<Sheet, Integer> nextRows = new HashMap<Sheet, Integer>();
+	private CellStyle textCellStyle;
+	private CellStyle floatingCellStyle;
+	private CellStyle integerCellStyle;
+	private CellStyle dateCellStyle;
+	private CellStyle timestampCellStyle;
+	private CellStyle headerCellStyle;
+	private Font titleFont;
+	// by heading 1-5 and the bold, italic, underline and center flags
+	private CellStyle[] cellStyles = new CellStyle[6 << 4];
+	private HashMap<String, CellFormat> cellFormats = new HashMap<String, CellFormat>();
+	private String lastSpec;
+	private CellFormat lastFormat;
+	private int resultSetNum = 0;
+	private String title;
+	private boolean headings;
+	private boolean append;
+	private boolean originalAppend;
+	private String[] names;
+	private int[] columnChars;
+	private boolean reusedSheet;
+	private String continuedName;
+	private int continuation;
+
+	public String getFormat() {
+		return "xls";
+	}
+
+	public boolean needsAllRows() {
+		return true;
+	}
+
+	public boolean usesWidths() {
+		return true;
+	}
+
+	public boolean printsDriverText() {
+		return false;
+	}
+
+	/**
+	 * Creates an empty workbook.
+	 */
+	protected Workbook newWorkbook() {
+		return new HSSFWorkbook();
+	}
+
+	/**
+	 * Reads an existing workbook to append to.
+	 */
+	protected Workbook readWorkbook(InputStream in) throws IOException {
+		return new HSSFWorkbook(new POIFSFileSystem(in));
+	}
+
+	protected SpreadsheetVersion getSpreadsheetVersion() {
+		return SpreadsheetVersion.EXCEL97;
+	}
+
+	/**
+	 * True to keep one workbook for the whole session and write it once on
+	 * close, rather than writing it out after every statement.
+	 */
+	protected boolean keepsWorkbook() {
+		return options.append;
+	}
+
+	/**
+	 * True if the workbook can be written more than once.
+	 */
+	protected boolean canCheckpoint() {
+		return true;
+	}
+
+	/**
+	 * The row after the last one already in <code>sheet</code>.
+	 */
+	protected int firstFreeRow(Sheet sheet) {
+		return sheet.getLastRowNum() + 1;
+	}
+
+	/**
+	 * Releases whatever the workbook holds outside the heap, after it has been
+	 * written.
+	 */
+	protected void disposeWorkbook(Workbook workbook) {
+	}
+
+	public void open(OutputOptions options) throws IOException {
+		this.options = options;
+		this.title = options.title;
+		this.headings = options.headings;
+		this.originalAppend = options.append;
+	}
+
+	public void beginPage() throws IOException {
+		append = originalAppend;
+		if ((workbook != null) && keepsWorkbook()) {
+			if (!options.incrementTab)
+				resultSetNum = 0;
+			return;
+		}
+		try {
+			if (!append) {
+				workbook = newWorkbook();
+				Arrays.fill(cellStyles, null);
+				cellFormats.clear();
+				lastSpec = null;
+				lastFormat = null;
+				nextRows.clear();
+				checkWritable();
+			} else if (workbook == null) {
+				try {
+					// Read in the data, since we're about to
+					// overwrite
+					InputStream in = new FileInputStream(options.outputFile);
+					try {
+						workbook = readWorkbook(in);
+					} finally {
+						in.close();
+					}
+					// set headers = off, turn off titles
+					headings = false;
+					title = null;
+				} catch (IOException e) {
+					// File does not exist, so try to create it
+					originalAppend = true;
+					append = false;
+					workbook = newWorkbook();
+				}
+				// Make sure we can write it back
+				checkWritable();
+
+			}
+			textCellStyle = workbook.createCellStyle();
+			// stextCellStyle.setAlignment(HSSFCellStyle.ALIGN_FILL);
+
+			floatingCellStyle = workbook.createCellStyle();
+			floatingCellStyle.setAlignment(CellStyle.ALIGN_RIGHT);
+			DataFormat format = workbook.createDataFormat();
+			floatingCellStyle.setDataFormat(format.getFormat("###,###,###,##0.00"));
+
+			integerCellStyle = workbook.createCellStyle();
+			integerCellStyle.setAlignment(CellStyle.ALIGN_RIGHT);
+			integerCellStyle.setDataFormat(format.getFormat("###########0"));
+
+			dateCellStyle = workbook.createCellStyle();
+			dateCellStyle.setDataFormat(format.getFormat(DATE_FORMAT));
+
+			timestampCellStyle = workbook.createCellStyle();
+			timestampCellStyle.setDataFormat(format.getFormat(TIMESTAMP_FORMAT));
+
+			titleFont = workbook.createFont();
+			titleFont.setFontHeightInPoints((short) 16);
+			titleFont.setFontName("Arial Black");
+			titleFont.setItalic(true);
+
+			headerCellStyle = workbook.createCellStyle();
+			headerCellStyle.setAlignment(CellStyle.ALIGN_CENTER);
+			headerCellStyle.setVerticalAlignment(CellStyle.VERTICAL_CENTER);
+			headerCellStyle.setFont(titleFont);
+		} catch (IOException e) {
+			System.err.println("Could not open output file '" + options.outputFile + "'");
+			e.printStackTrace(System.err);
+			throw e;
+		}
+		if (!options.incrementTab)
+			resultSetNum = 0;
+	}
+
+	public void beginResult(String[] names, int[] types, int[] precisions, int[] scales, int[] widths)
+			throws IOException {
+		this.names = names;
+		columnChars = widths.clone();
+		resultSetNum++;
+		continuation = 1;
+
+		// Start a new sheet, or pick the correct sheet
+		boolean newSheet = true;
+		// There is a map entry
+		String myTitle = title;
+
+		int mySheet = options.tabNames.indexOf(options.sheetName);
+		if (mySheet == -1) {
+			mySheet = resultSetNum - 1;
+		}
+
+		if (mySheet < options.tabTitles.size()) {
+			myTitle = options.tabTitles.get(mySheet);
+		}
+		if (mySheet < options.tabNames.size()) {
+			if (workbook.getNumberOfSheets() + 1 < mySheet) {
+				// Create all intermediate sheets
+				for (int i = workbook.getNumberOfSheets() + 1; i < mySheet; i++) {
+					String name = options.tabNames.get(i);
+					System.out.println("Looking for " + name);
+					currentSheet = workbook.getSheet(name);
+					if (currentSheet == null) {
+						System.out.println("Creating " + name);
+						currentSheet = workbook.createSheet(name);
+						String title = null;
+						if (i < options.tabTitles.size()) {
+							title = options.tabTitles.get(i);
+						}
+						if (title != null) {
+							Row row = currentSheet.createRow(0);
+							setCellWithFormatting(row, 0, title);
+							nextRows.put(currentSheet, 1);
+						}
+					}
+				}
+			}
+
+			String name = options.tabNames.get(mySheet);
+			Sheet sheet = workbook.getSheet(name);
+			if (sheet == null) {
+				selectSheet(workbook.createSheet(name));
+			} else {
+				selectSheet(sheet);
+				newSheet = false;
+			}
+		} else {
+			selectSheet(workbook.createSheet());
+		}
+		reusedSheet = !newSheet;
+		continuedName = currentSheet.getSheetName();
+
+		if ((!append || options.incrementTab) && newSheet) {
+			if (myTitle != null) {
+				// Add a row
+				Row row = currentSheet.createRow(0);
+				nextRowNum = 1;
+				// HSSFCell cell = row.createCell(0);
+				// cell.setCellValue(new HSSFRichTextString(myTitle));
+				// cell.setCellStyle(headerCellStyle);
+
+				setCellWithFormatting(row, 0, myTitle);
+				//
+				// currentSheet.addMergedRegion(new CellRangeAddress(0, //
+				// first
+				// // row
+				// // (0-based)
+				// 0, // last row (0-based)
+				// 0, // first column (0-based)
+				// names.length - 1)); // last column (0-based)
+				// create the next row
+				// currentSheet.createRow(currentSheet.getLastRowNum());
+			}
+			if (headings) {
+				writeHeadings();
+			}
+		}
+	}
+
+	private void selectSheet(Sheet sheet) {
+		currentSheet = sheet;
+		Integer next = nextRows.get(sheet);
+		nextRowNum = (next != null) ? next : firstFreeRow(sheet);
+	}
+
+	private void writeHeadings() {
+		// Add a row
+		Row row = currentSheet.createRow(nextRowNum++);
+		for (int i = 0; i < names.length; i++) {
+			row.createCell(i).setCellValue(names[i]);
+		}
+	}
+
+	/**
+	 * Carries on with the current result on a fresh sheet once the sheet is
+	 * full.
+	 */
+	private void continueSheet() {
+		sizeColumns();
+		nextRows.put(currentSheet, nextRowNum);
+		reusedSheet = false;
+		String name;
+		do {
+			String suffix = " (" + (++continuation) + ")";
+			// Excel limits sheet names to 31 characters
+			name = continuedName.substring(0, Math.min(continuedName.length(), 31 - suffix.length())) + suffix;
+		} while (workbook.getSheet(name) != null);
+		selectSheet(workbook.createSheet(name));
+		if (headings) {
+			writeHeadings();
+		}
+	}
+
+	public void writeRows(Object[][] rows, int count) throws IOException {
+		for (int r = 0; r < count; r++) {
+			writeRow(rows[r]);
+		}
+	}
+
+	private void writeRow(Object[] values) {
+		if (nextRowNum > getSpreadsheetVersion().getLastRowIndex()) {
+			continueSheet();
+		}
+		// Add a row
+		Row row = currentSheet.createRow(nextRowNum++);
+		for (int i = 0; i < values.length; i++) {
+			Object value = values[i];
+			if (value == null) {
+				continue;
+			}
+			if (value instanceof String) {
+				String text = (String) value;
+				columnChars[i] = Math.max(columnChars[i], text.length());
+				if (text.startsWith("{")) {
+					setCellWithFormatting(row, i, text);
+				} else {
+					setTextCell(row, i, text);
+				}
+			} else if (value instanceof Number) {
+				Cell cell = row.createCell(i);
+				boolean floating = !(value instanceof Long);
+				// a float widened as is would show digits it never had
+				double number = (value instanceof Float) ? Double.parseDouble(value.toString())
+						: ((Number) value).doubleValue();
+				cell.setCellValue(number);
+				cell.setCellType(Cell.CELL_TYPE_NUMERIC);
+				cell.setCellStyle(floating ? floatingCellStyle : integerCellStyle);
+				columnChars[i] = Math.max(columnChars[i], numberWidth(number, floating));
+			} else if (value instanceof java.util.Date) {
+				Cell cell = row.createCell(i);
+				cell.setCellValue((java.util.Date) value);
+				boolean timestamp = value instanceof Timestamp;
+				cell.setCellStyle(timestamp ? timestampCellStyle : dateCellStyle);
+				int length = timestamp ? TIMESTAMP_FORMAT.length() : DATE_FORMAT.length();
+				columnChars[i] = Math.max(columnChars[i], length);
+			} else {
+				String text = ColumnCodec.toText(value);
+				columnChars[i] = Math.max(columnChars[i], text.length());
+				setTextCell(row, i, text);
+			}
+		}
+	}
+
+	private void setTextCell(Row row, int column, String text) {
+		Cell cell = row.createCell(column);
+		cell.setCellValue(text);
+		cell.setCellType(Cell.CELL_TYPE_STRING);
+		cell.setCellStyle(textCellStyle);
+	}
+
+	private void setCellWithFormatting(Row row, int column, String value) {
+		CellFormat format = formatFor(value);
+		if (format.textStart < value.length()) {
+			value = value.substring(format.textStart);
+		} else {
+			value = "";
+		}
+
+		Cell cell = row.createCell(column);
+		cell.setCellValue(value);
+		cell.setCellStyle(format.style);
+		cell.setCellType(Cell.CELL_TYPE_STRING);
+		if (format.merge) {
+			currentSheet.addMergedRegion(new CellRangeAddress(row.getRowNum(), row.getRowNum(), cell.getColumnIndex(),
+					cell.getColumnIndex() + format.mergeCells));
+		}
+	}
+
+	/**
+	 * Looks up the format for a value starting with a <code>{...}</code>
+	 * spec, parsing the spec only the first time it is seen. Data rows tend to
+	 * repeat the same spec, so the last one is checked before the map.
+	 */
+	private CellFormat formatFor(String value) {
+		if ((lastSpec != null) && value.startsWith(lastSpec)) {
+			return lastFormat;
+		}
+		int end = value.indexOf('}');
+		if (end < 0) {
+			// unterminated, the whole value is the spec
+			return parseFormat(value, value.length());
+		}
+		String spec = value.substring(0, end + 1);
+		CellFormat format = cellFormats.get(spec);
+		if (format == null) {
+			if (cellFormats.size() >= MAX_CACHED_FORMATS) {
+				cellFormats.clear();
+			}
+			format = parseFormat(value, end);
+			cellFormats.put(spec, format);
+		}
+		lastSpec = spec;
+		lastFormat = format;
+		return format;
+	}
+
+	private CellFormat parseFormat(String value, int end) {
+		boolean bold = false;
+		boolean underline = false;
+		boolean italic = false;
+		boolean center = false;
+		int heading = 5; // Default "heading5" == 10pt which
+		// is normal
+
+		boolean mergeSpec = false;
+		int mergeCells = 0;
+		for (int index = 1; index < end; index++) {
+			switch (value.charAt(index)) {
+			case 'u':
+			case 'U':
+				underline = true;
+				break;
+			case 'b':
+			case 'B':
+				bold = true;
+				break;
+			case 'i':
+			case 'I':
+				italic = true;
+				break;
+			case 'c':
+			case 'C':
+				center = true;
+				break;
+			case '>': // Merge columns
+				mergeSpec = true;
+				break;
+			default:
+				char c = value.charAt(index);
+				if (!mergeSpec) {
+					if ((c >= '1') && (c <= '4')) {
+						heading = c - '0';
+					}
+				} else {
+					mergeCells = c - '0';
+				}
+				break;
+
+			}
+		}
+		return new CellFormat(styleFor(heading, bold, italic, underline, center), mergeSpec, mergeCells, end + 1);
+	}
+
+	/**
+	 * Returns the one style for a combination of format attributes, creating
+	 * it on first use. There are only 80 combinations, far below the 4000
+	 * styles an xls workbook can hold.
+	 */
+	private CellStyle styleFor(int heading, boolean bold, boolean italic, boolean underline, boolean center) {
+		int key = (heading << 4) | (bold ? 8 : 0) | (italic ? 4 : 0) | (underline ? 2 : 0) | (center ? 1 : 0);
+		CellStyle style = cellStyles[key];
+		if (style == null) {
+			// Create it
+			style = workbook.createCellStyle();
+			Font font = workbook.createFont();
+
+			if (bold) {
+				font.setBoldweight(Font.BOLDWEIGHT_BOLD);
+			}
+			if (underline) {
+				font.setUnderline(Font.U_SINGLE);
+			}
+			font.setItalic(italic);
+			font.setFontHeightInPoints((short) (20 - 2 * heading));
+
+			style.setFont(font);
+			if (center) {
+				style.setAlignment(CellStyle.ALIGN_CENTER);
+			}
+			cellStyles[key] = style;
+		}
+		return style;
+	}
+
+	/**
+	 * Characters needed to show <code>value</code> in the integer or floating
+	 * point cell format.
+	 */
+	private static int numberWidth(double value, boolean floating) {
+		int digits = 1;
+		for (double v = Math.abs(value); (v >= 10) && (digits < 309); v /= 10) {
+			digits++;
+		}
+		int width = digits + ((value < 0) ? 1 : 0);
+		if (floating) {
+			// thousands separators and two decimals
+			width += (digits - 1) / 3 + 3;
+		}
+		return width;
+	}
+
+	public void endResult() throws IOException {
+		sizeColumns();
+		nextRows.put(currentSheet, nextRowNum);
+	}
+
+	/**
+	 * Sets the column widths of the current sheet from the character counts
+	 * kept while writing, or has POI measure every cell with
+	 * <code>-A</code>.
+	 */
+	private void sizeColumns() {
+		for (int i = 0; i < columnChars.length; i++) {
+			if (options.autoSizeColumns) {
+				currentSheet.autoSizeColumn(i);
+				continue;
+			}
+			// in 1/256ths of a character, and Excel stops at 255 characters
+			int width = Math.min(255, columnChars[i] + 1) * 256;
+			if (reusedSheet) {
+				width = Math.max(width, currentSheet.getColumnWidth(i));
+			}
+			currentSheet.setColumnWidth(i, width);
+		}
+	}
+
+	public void writeUpdateCount(int count) throws IOException {
+		if (!options.showResultsOnly) {
+			options.console.println();
+			options.console.println("Updated: " + count);
+			options.console.println();
+		}
+	}
+
+	public void endPage() throws IOException {
+		if (!keepsWorkbook()) {
+			writeWorkbook();
+		}
+	}
+
+	/**
+	 * Writes what the session has added so far, without waiting for the
+	 * session to end.
+	 */
+	public void checkpoint() throws IOException {
+		if ((workbook == null) || !keepsWorkbook()) {
+			// nothing pending
+			return;
+		}
+		if (!canCheckpoint()) {
+			throw new IOException(getFormat() + " workbooks can only be written once, when the session ends");
+		}
+		writeWorkbook();
+	}
+
+	private File getTarget() {
+		return new File(options.outputFile).getAbsoluteFile();
+	}
+
+	private void checkWritable() throws IOException {
+		File target = getTarget();
+		if (target.exists() ? !target.canWrite() : !target.getParentFile().canWrite()) {
+			throw new IOException("Cannot write " + target);
+		}
+	}
+
+	private void writeWorkbook() throws IOException {
+		File target = getTarget();
+		File temp = File.createTempFile("." + target.getName() + ".", ".tmp", target.getParentFile());
+		try {
+			// Write the workbook out to file
+			FileOutputStream out = new FileOutputStream(temp);
+			try {
+				workbook.write(out);
+				out.flush();
+				out.getFD().sync();
+			} finally {
+				out.close();
+			}
+			try {
+				Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+						StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			System.err.println("Could not write output file '" + options.outputFile + "'");
+			throw e;
+		} finally {
+			// only still there if something failed
+			temp.delete();
+		}
+	}
+
+	public void close() throws IOException {
+		try {
+			if (keepsWorkbook() && (workbook != null)) {
+				writeWorkbook();
+			}
+		} finally {
+			if (workbook != null) {
+				disposeWorkbook(workbook);
+			}
+		}
+	}
+}
@@ -0,0 +1,108 @@
+/**
+ * JdbcTool: Command line pain relief for JDBC databases.
+ * Copyright (C) 2007, Quuxo Software.
+ * JdbcTool 2.0 - XLS, CSV, TEXT, HTML output and multi-tab features
+ * Copyright 2009-2017 Renny Koshy
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+package com.quuxo.jdbctool;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+/**
+ * Office Open XML workbooks, streamed through POI's <code>SXSSFWorkbook</code>.
+ * Only the last <code>ROW_WINDOW</code> rows of a sheet are kept in memory,
+ * older ones are flushed to compressed temp files, so a sheet can hold the
+ * full million rows without the heap growing with it.
+ *
+ * The workbook lives for the whole session and is written when the output is
+ * closed, since a streamed workbook can only be written once.
+ */
+public class XlsxResultWriter extends XlsResultWriter {
+	static final int ROW_WINDOW = 1000;
+
+	private XSSFWorkbook template;
+
+	@Override
+	public String getFormat() {
+		return "xlsx";
+	}
+
+	@Override
+	public boolean needsAllRows() {
+		// rows go straight to the sheet's temp file
+		return false;
+	}
+
+	@Override
+	protected Workbook newWorkbook() {
+		SXSSFWorkbook workbook = new SXSSFWorkbook(ROW_WINDOW);
+		workbook.setCompressTempFiles(true);
+		return workbook;
+	}
+
+	@Override
+	protected Workbook readWorkbook(InputStream in) throws IOException {
+		template = new XSSFWorkbook(in);
+		SXSSFWorkbook workbook = new SXSSFWorkbook(template, ROW_WINDOW);
+		workbook.setCompressTempFiles(true);
+		return workbook;
+	}
+
+	@Override
+	protected SpreadsheetVersion getSpreadsheetVersion() {
+		return SpreadsheetVersion.EXCEL2007;
+	}
+
+	@Override
+	protected boolean keepsWorkbook() {
+		return true;
+	}
+
+	@Override
+	protected boolean canCheckpoint() {
+		// writing closes the sheets' temp files
+		return false;
+	}
+
+	@Override
+	protected int firstFreeRow(Sheet sheet) {
+		// Rows read from an existing file stay in the template, and new rows
+		// have to go after them
+		if (template != null) {
+			XSSFSheet existing = template.getSheet(sheet.getSheetName());
+			if ((existing != null) && (existing.getPhysicalNumberOfRows() > 0)) {
+				return Math.max(existing.getLastRowNum(), sheet.getLastRowNum()) + 1;
+			}
+		}
+		return super.firstFreeRow(sheet);
+	}
+
+	@Override
+	protected void disposeWorkbook(Workbook workbook) {
+		((SXSSFWorkbook) workbook).dispose();
+	}
+}
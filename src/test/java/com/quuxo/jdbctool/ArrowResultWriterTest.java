@@ -0,0 +1,274 @@
+/**
+ * JdbcTool: Command line pain relief for JDBC databases.
+ * Copyright (C) 2007, Quuxo Software.
+ * JdbcTool 2.0 - XLS, CSV, TEXT, HTML output and multi-tab features
+ * Copyright 2009-2017 Renny Koshy
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+
+package com.quuxo.jdbctool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.DateDayVector;
+import org.apache.arrow.vector.DecimalVector;
+import org.apache.arrow.vector.Float4Vector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.TimeStampMicroTZVector;
+import org.apache.arrow.vector.VarBinaryVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowStreamReader;
+import org.apache.arrow.vector.types.DateUnit;
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.TimeUnit;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Writes result sets with <code>ArrowResultWriter</code> and reads the
+ * streams back with the Arrow Java library, so the hand written flatbuffers
+ * and buffer layout are checked against the reference reader.
+ */
+public class ArrowResultWriterTest {
+	private static final int ROWS = 2500;
+	private static final int BATCH_ROWS = 1000;
+
+	private static final String[] NAMES = { "id", "price", "ratio", "score", "name", "created", "day", "data",
+			"amount" };
+	private static final int[] TYPES = { Types.BIGINT, Types.DECIMAL, Types.DOUBLE, Types.REAL, Types.VARCHAR,
+			Types.TIMESTAMP, Types.DATE, Types.VARBINARY, Types.NUMERIC };
+	private static final int[] PRECISIONS = { 19, 10, 15, 7, 200, 26, 10, 16, 0 };
+	private static final int[] SCALES = { 0, 2, 0, 0, 0, 6, 0, 0, 0 };
+
+	// local midnight, so the epoch day doesn't depend on the time zone
+	private static final Date[] DATES = { Date.valueOf("1970-01-01"), Date.valueOf("2000-03-01"),
+			Date.valueOf("2017-07-14"), Date.valueOf("1969-12-31") };
+	private static final int[] EPOCH_DAYS = { 0, 11017, 17361, -1 };
+
+	private static final BigDecimal HUGE = new BigDecimal("123456789012345678901234567890123456789.5");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private BufferAllocator allocator;
+
+	@Before
+	public void setUp() {
+		allocator = new RootAllocator(Long.MAX_VALUE);
+	}
+
+	@After
+	public void tearDown() {
+		allocator.close();
+	}
+
+	@Test
+	public void roundTrip() throws IOException {
+		File file = folder.newFile("rows.arrow");
+		ArrowResultWriter writer = open(file);
+		writer.beginPage();
+		writer.beginResult(NAMES, TYPES, PRECISIONS, SCALES, new int[NAMES.length]);
+		Object[][] batch = new Object[100][];
+		for (int start = 0; start < ROWS; start += batch.length) {
+			for (int r = 0; r < batch.length; r++) {
+				batch[r] = row(start + r);
+			}
+			writer.writeRows(batch, batch.length);
+		}
+		writer.endResult();
+		writer.endPage();
+		writer.close();
+
+		ArrowStreamReader reader = new ArrowStreamReader(new FileInputStream(file), allocator);
+		try {
+			VectorSchemaRoot root = reader.getVectorSchemaRoot();
+			List<Field> fields = root.getSchema().getFields();
+			ArrowType[] expected = { new ArrowType.Int(64, true), new ArrowType.Decimal(10, 2, 128),
+					new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE),
+					new ArrowType.FloatingPoint(FloatingPointPrecision.SINGLE), ArrowType.Utf8.INSTANCE,
+					new ArrowType.Timestamp(TimeUnit.MICROSECOND, TimeZone.getDefault().getID()),
+					new ArrowType.Date(DateUnit.DAY), ArrowType.Binary.INSTANCE, ArrowType.Utf8.INSTANCE };
+			assertEquals(NAMES.length, fields.size());
+			for (int i = 0; i < NAMES.length; i++) {
+				assertEquals(NAMES[i], fields.get(i).getName());
+				assertEquals(expected[i], fields.get(i).getType());
+				assertTrue(fields.get(i).isNullable());
+			}
+
+			List<Integer> batches = new ArrayList<Integer>();
+			int i = 0;
+			while (reader.loadNextBatch()) {
+				int count = root.getRowCount();
+				batches.add(count);
+				for (int r = 0; r < count; r++, i++) {
+					check(root, r, i);
+				}
+			}
+			assertEquals(ROWS, i);
+			assertEquals("[1000, 1000, 500]", batches.toString());
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void newShapeStartsNewFile() throws IOException {
+		File file = folder.newFile("shapes.arrow");
+		ArrowResultWriter writer = open(file);
+		writer.beginPage();
+		String[] names = { "n" };
+		int[] types = { Types.INTEGER };
+		int[] zeros = { 0 };
+		for (int result = 0; result < 2; result++) {
+			writer.beginResult(names, types, zeros, zeros, zeros);
+			writer.writeRows(new Object[][] { { Long.valueOf(result) } }, 1);
+			writer.endResult();
+		}
+		String[] other = { "s" };
+		int[] text = { Types.VARCHAR };
+		writer.beginResult(other, text, zeros, zeros, zeros);
+		writer.writeRows(new Object[][] { { "x" } }, 1);
+		writer.endResult();
+		writer.endPage();
+		writer.close();
+
+		// each result set ends its batch, so the first file has two
+		ArrowStreamReader reader = new ArrowStreamReader(new FileInputStream(file), allocator);
+		try {
+			VectorSchemaRoot root = reader.getVectorSchemaRoot();
+			for (int result = 0; result < 2; result++) {
+				assertTrue(reader.loadNextBatch());
+				assertEquals(1, root.getRowCount());
+				assertEquals(result, ((BigIntVector) root.getVector("n")).get(0));
+			}
+			assertFalse(reader.loadNextBatch());
+		} finally {
+			reader.close();
+		}
+		reader = new ArrowStreamReader(new FileInputStream(new File(folder.getRoot(), "shapes-2.arrow")), allocator);
+		try {
+			VectorSchemaRoot root = reader.getVectorSchemaRoot();
+			assertTrue(reader.loadNextBatch());
+			assertEquals("x", new String(((VarCharVector) root.getVector("s")).get(0), StandardCharsets.UTF_8));
+			assertFalse(reader.loadNextBatch());
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void emptyResult() throws IOException {
+		File file = folder.newFile("empty.arrow");
+		ArrowResultWriter writer = open(file);
+		writer.beginResult(NAMES, TYPES, PRECISIONS, SCALES, new int[NAMES.length]);
+		writer.endResult();
+		writer.endPage();
+		writer.close();
+
+		ArrowStreamReader reader = new ArrowStreamReader(new FileInputStream(file), allocator);
+		try {
+			assertEquals(NAMES.length, reader.getVectorSchemaRoot().getSchema().getFields().size());
+			assertFalse(reader.loadNextBatch());
+		} finally {
+			reader.close();
+		}
+	}
+
+	private ArrowResultWriter open(File file) throws IOException {
+		OutputOptions options = new OutputOptions();
+		options.outputFile = file.getPath();
+		options.batchRows = BATCH_ROWS;
+		ArrowResultWriter writer = new ArrowResultWriter();
+		writer.open(options);
+		return writer;
+	}
+
+	private static Object[] row(int i) {
+		return new Object[] { (i % 10 == 3) ? null : Long.valueOf(i),
+				(i % 10 == 4) ? null : BigDecimal.valueOf(7L * i - 5000, 2),
+				Double.valueOf(i * 0.5),
+				Float.valueOf(i / 4.0f),
+				(i % 10 == 5) ? null : "r\u00e9sum\u00e9 " + i,
+				(i % 10 == 7) ? null : timestamp(i),
+				DATES[i % DATES.length],
+				(i % 10 == 8) ? null : new byte[] { (byte) i, (byte) (i >> 8) },
+				HUGE.add(BigDecimal.valueOf(i)) };
+	}
+
+	private static Timestamp timestamp(int i) {
+		Timestamp timestamp = new Timestamp((1500000000L + i) * 1000);
+		timestamp.setNanos((i % 1000) * 1000);
+		return timestamp;
+	}
+
+	private static void check(VectorSchemaRoot root, int r, int i) {
+		Object[] row = row(i);
+		BigIntVector id = (BigIntVector) root.getVector("id");
+		assertEquals(row[0] == null, id.isNull(r));
+		if (row[0] != null) {
+			assertEquals(i, id.get(r));
+		}
+		DecimalVector price = (DecimalVector) root.getVector("price");
+		assertEquals(row[1], price.getObject(r));
+		assertEquals(i * 0.5, ((Float8Vector) root.getVector("ratio")).get(r), 0.0);
+		assertEquals(i / 4.0f, ((Float4Vector) root.getVector("score")).get(r), 0.0f);
+		VarCharVector name = (VarCharVector) root.getVector("name");
+		assertEquals(row[4] == null, name.isNull(r));
+		if (row[4] != null) {
+			assertEquals(row[4], new String(name.get(r), StandardCharsets.UTF_8));
+		}
+		TimeStampMicroTZVector created = (TimeStampMicroTZVector) root.getVector("created");
+		assertEquals(row[5] == null, created.isNull(r));
+		if (row[5] != null) {
+			assertEquals((1500000000L + i) * 1000000 + i % 1000, created.get(r));
+		}
+		assertEquals(EPOCH_DAYS[i % DATES.length], ((DateDayVector) root.getVector("day")).get(r));
+		VarBinaryVector data = (VarBinaryVector) root.getVector("data");
+		assertEquals(row[7] == null, data.isNull(r));
+		if (row[7] != null) {
+			assertArrayEquals((byte[]) row[7], data.get(r));
+		}
+		VarCharVector amount = (VarCharVector) root.getVector("amount");
+		assertEquals(HUGE.add(BigDecimal.valueOf(i)).toPlainString(),
+				new String(amount.get(r), StandardCharsets.UTF_8));
+	}
+}
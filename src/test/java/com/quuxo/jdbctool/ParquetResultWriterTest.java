@@ -0,0 +1,279 @@
+/**
+ * JdbcTool: Command line pain relief for JDBC databases.
+ * Copyright (C) 2007, Quuxo Software.
+ * JdbcTool 2.0 - XLS, CSV, TEXT, HTML output and multi-tab features
+ * Copyright 2009-2017 Renny Koshy
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+
+package com.quuxo.jdbctool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.example.GroupReadSupport;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
+import org.apache.parquet.hadoop.metadata.ParquetMetadata;
+import org.apache.parquet.hadoop.util.HadoopInputFile;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.MessageTypeParser;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Writes result sets with <code>ParquetResultWriter</code> and reads them
+ * back with parquet-mr, so the hand written encoding is checked against the
+ * reference reader.
+ */
+public class ParquetResultWriterTest {
+	// enough text for the name column to fill several pages
+	private static final int ROWS = 40000;
+	private static final int BATCH = 1000;
+
+	private static final String[] NAMES = { "id", "price", "ratio", "score", "name", "created", "day", "data", "ID",
+			"amount" };
+	private static final int[] TYPES = { Types.BIGINT, Types.DECIMAL, Types.DOUBLE, Types.REAL, Types.VARCHAR,
+			Types.TIMESTAMP, Types.DATE, Types.VARBINARY, Types.INTEGER, Types.NUMERIC };
+	private static final int[] PRECISIONS = { 19, 10, 15, 7, 200, 26, 10, 16, 10, 0 };
+	private static final int[] SCALES = { 0, 2, 0, 0, 0, 6, 0, 0, 0, 0 };
+
+	private static final String SCHEMA = "message schema {\n"
+			+ "  optional int64 id;\n"
+			+ "  optional binary price (DECIMAL(10,2));\n"
+			+ "  optional double ratio;\n"
+			+ "  optional float score;\n"
+			+ "  optional binary name (UTF8);\n"
+			+ "  optional int64 created (TIMESTAMP_MICROS);\n"
+			+ "  optional int32 day (DATE);\n"
+			+ "  optional binary data;\n"
+			+ "  optional int64 ID_2;\n"
+			+ "  optional binary amount (UTF8);\n"
+			+ "}\n";
+
+	// local midnight, so the epoch day doesn't depend on the time zone
+	private static final Date[] DATES = { Date.valueOf("1970-01-01"), Date.valueOf("2000-03-01"),
+			Date.valueOf("2017-07-14"), Date.valueOf("1969-12-31") };
+	private static final int[] EPOCH_DAYS = { 0, 11017, 17361, -1 };
+
+	private static final BigDecimal HUGE = new BigDecimal("123456789012345678901234567890123456789.5");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void snappy() throws IOException {
+		check(write("snappy"));
+	}
+
+	@Test
+	public void gzip() throws IOException {
+		check(write("gzip"));
+	}
+
+	@Test
+	public void uncompressed() throws IOException {
+		check(write("none"));
+	}
+
+	@Test
+	public void emptyResult() throws IOException {
+		File file = folder.newFile("empty.parquet");
+		ParquetResultWriter writer = open(file, null);
+		writer.beginResult(NAMES, TYPES, PRECISIONS, SCALES, new int[NAMES.length]);
+		writer.endResult();
+		writer.endPage();
+		writer.close();
+
+		ParquetMetadata footer = footer(file);
+		assertEquals(MessageTypeParser.parseMessageType(SCHEMA), footer.getFileMetaData().getSchema());
+		assertTrue(footer.getBlocks().isEmpty());
+	}
+
+	@Test
+	public void newShapeStartsNewFile() throws IOException {
+		File file = folder.newFile("shapes.parquet");
+		ParquetResultWriter writer = open(file, null);
+		writer.beginPage();
+		String[] names = { "n" };
+		int[] types = { Types.INTEGER };
+		int[] zeros = { 0 };
+		for (int result = 0; result < 2; result++) {
+			writer.beginResult(names, types, zeros, zeros, zeros);
+			writer.writeRows(new Object[][] { { Long.valueOf(result) } }, 1);
+			writer.endResult();
+		}
+		String[] other = { "s" };
+		int[] text = { Types.VARCHAR };
+		writer.beginResult(other, text, zeros, zeros, zeros);
+		writer.writeRows(new Object[][] { { "x" } }, 1);
+		writer.endResult();
+		writer.endPage();
+		writer.close();
+
+		assertEquals(2, footer(file).getBlocks().get(0).getRowCount());
+		File second = new File(folder.getRoot(), "shapes-2.parquet");
+		ParquetReader<Group> reader = reader(second);
+		assertEquals("x", reader.read().getString("s", 0));
+		assertNull(reader.read());
+		reader.close();
+	}
+
+	@Test
+	public void uniqueNames() {
+		assertArrayEquals(new String[] { "id", "name", "id_2", "ID_3", "id_4" },
+				ParquetResultWriter.uniqueNames(new String[] { "id", "name", "id", "ID", "id" }));
+		// a suffix never takes a name the result already has
+		assertArrayEquals(new String[] { "a", "a_3", "a_2" },
+				ParquetResultWriter.uniqueNames(new String[] { "a", "a", "a_2" }));
+	}
+
+	private ParquetResultWriter open(File file, String compression) throws IOException {
+		OutputOptions options = new OutputOptions();
+		options.outputFile = file.getPath();
+		options.compression = compression;
+		ParquetResultWriter writer = new ParquetResultWriter();
+		writer.open(options);
+		return writer;
+	}
+
+	private File write(String compression) throws IOException {
+		File file = folder.newFile(compression + ".parquet");
+		ParquetResultWriter writer = open(file, compression);
+		writer.beginPage();
+		writer.beginResult(NAMES, TYPES, PRECISIONS, SCALES, new int[NAMES.length]);
+		Object[][] batch = new Object[BATCH][];
+		for (int start = 0; start < ROWS; start += BATCH) {
+			for (int r = 0; r < BATCH; r++) {
+				batch[r] = row(start + r);
+			}
+			writer.writeRows(batch, BATCH);
+		}
+		writer.endResult();
+		writer.endPage();
+		writer.close();
+		return file;
+	}
+
+	private static Object[] row(int i) {
+		return new Object[] { (i % 10 == 3) ? null : Long.valueOf(i),
+				(i % 10 == 4) ? null : BigDecimal.valueOf(7L * i - 50000, 2),
+				Double.valueOf(i * 0.5),
+				Float.valueOf(i / 4.0f),
+				(i % 10 == 5) ? null : name(i),
+				(i % 10 == 7) ? null : timestamp(i),
+				DATES[i % DATES.length],
+				new byte[] { (byte) i, (byte) (i >> 8) },
+				Long.valueOf(-i),
+				HUGE.add(BigDecimal.valueOf(i)) };
+	}
+
+	private static String name(int i) {
+		StringBuilder name = new StringBuilder("r\u00e9sum\u00e9 ").append(i).append(' ');
+		for (int n = i % 200; n > 0; n--) {
+			name.append('x');
+		}
+		return name.toString();
+	}
+
+	private static Timestamp timestamp(int i) {
+		Timestamp timestamp = new Timestamp((1500000000L + i) * 1000);
+		timestamp.setNanos((i % 1000) * 1000);
+		return timestamp;
+	}
+
+	private static ParquetMetadata footer(File file) throws IOException {
+		ParquetFileReader reader = ParquetFileReader
+				.open(HadoopInputFile.fromPath(new Path(file.getPath()), new Configuration()));
+		try {
+			return reader.getFooter();
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static ParquetReader<Group> reader(File file) throws IOException {
+		return ParquetReader.builder(new GroupReadSupport(), new Path(file.getPath())).build();
+	}
+
+	private static void check(File file) throws IOException {
+		ParquetMetadata footer = footer(file);
+		MessageType schema = footer.getFileMetaData().getSchema();
+		assertEquals(MessageTypeParser.parseMessageType(SCHEMA), schema);
+		long rows = 0;
+		List<BlockMetaData> blocks = footer.getBlocks();
+		for (BlockMetaData block : blocks) {
+			rows += block.getRowCount();
+		}
+		assertEquals(ROWS, rows);
+
+		ParquetReader<Group> reader = reader(file);
+		try {
+			for (int i = 0; i < ROWS; i++) {
+				Group group = reader.read();
+				Object[] row = row(i);
+				if (row[0] == null) {
+					assertEquals(0, group.getFieldRepetitionCount("id"));
+				} else {
+					assertEquals(i, group.getLong("id", 0));
+				}
+				if (row[1] == null) {
+					assertEquals(0, group.getFieldRepetitionCount("price"));
+				} else {
+					byte[] unscaled = group.getBinary("price", 0).getBytes();
+					assertEquals(row[1], new BigDecimal(new BigInteger(unscaled), 2));
+				}
+				assertEquals(i * 0.5, group.getDouble("ratio", 0), 0.0);
+				assertEquals(i / 4.0f, group.getFloat("score", 0), 0.0f);
+				if (row[4] == null) {
+					assertEquals(0, group.getFieldRepetitionCount("name"));
+				} else {
+					assertEquals(row[4], group.getString("name", 0));
+				}
+				if (row[5] == null) {
+					assertEquals(0, group.getFieldRepetitionCount("created"));
+				} else {
+					assertEquals((1500000000L + i) * 1000000 + i % 1000, group.getLong("created", 0));
+				}
+				assertEquals(EPOCH_DAYS[i % DATES.length], group.getInteger("day", 0));
+				assertArrayEquals((byte[]) row[7], group.getBinary("data", 0).getBytes());
+				assertEquals(-i, group.getLong("ID_2", 0));
+				assertEquals(HUGE.add(BigDecimal.valueOf(i)).toPlainString(), group.getString("amount", 0));
+			}
+			assertNull(reader.read());
+		} finally {
+			reader.close();
+		}
+	}
+}